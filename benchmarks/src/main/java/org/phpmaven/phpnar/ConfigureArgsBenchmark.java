@@ -0,0 +1,81 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks CompileMojo.createConfigureArgs with a configurable number of extensions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigureArgsBenchmark {
+
+    /**
+     * The number of extensions
+     */
+    @Param({"10", "100"})
+    public int extensionCount;
+
+    private CompileMojo mojo;
+
+    private AolItem item;
+
+    @Setup
+    public void setup() throws Exception {
+        final List<Extension> extensions = new ArrayList<Extension>();
+        for (int i = 0; i < this.extensionCount; i++) {
+            final Extension ext = new Extension();
+            ext.setName("ext" + i);
+            if (i % 2 == 0) {
+                ext.setEnable(i % 4 == 0);
+            } else {
+                ext.setWith(Boolean.TRUE);
+            }
+            if (i % 3 == 0) {
+                ext.setShared(Boolean.TRUE);
+            }
+            extensions.add(ext);
+        }
+        this.mojo = new CompileMojo();
+        this.mojo.setExtensions(extensions);
+        this.mojo.setConfigureArgs("--enable-cli --enable-embed=shared --with-config-file-path=/etc/php");
+        this.item = new AolItem("amd64", "Linux", "g++", null, null);
+    }
+
+    @Benchmark
+    public String createConfigureArgs() throws Exception {
+        return this.mojo.createConfigureArgs(this.item, "--enable-cli --enable-embed=shared");
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the nar packaging (PackageMojo.zip, add, zipHeaders and zipFilterFile) on a synthetic phpmaven.install tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PackageBenchmark {
+
+    /**
+     * The number of header files in the install tree
+     */
+    @Param({"2000", "10000"})
+    public int fileCount;
+
+    /**
+     * The size of every header file
+     */
+    @Param({"4096", "32768"})
+    public int fileSize;
+
+    /**
+     * The number of compression threads; 0 for the number of cores
+     */
+    @Param({"0"})
+    public int threads;
+
+    private File root;
+
+    private File installFolder;
+
+    private File narFile;
+
+    private ExecutorService executor;
+
+    private PackageMojo mojo;
+
+    @Setup
+    public void setup() throws Exception {
+        this.root = SyntheticTrees.createTempFolder("phpnar-package");
+        this.installFolder = new File(this.root, "phpmaven.install");
+        SyntheticTrees.createInstallTree(this.installFolder, this.fileCount, this.fileSize);
+        this.narFile = new File(this.root, "bench.nar");
+        if (this.threads == 0) {
+            this.threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.executor = Executors.newFixedThreadPool(this.threads);
+        this.mojo = new PackageMojo();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.executor.shutdownNow();
+        SyntheticTrees.delete(this.root);
+    }
+
+    private NarArchiver newArchiver() {
+        return new NarArchiver(this.executor, this.threads, -1);
+    }
+
+    /**
+     * The executable nar: binaries and modules
+     */
+    @Benchmark
+    public long executableNar() throws Exception {
+        final NarArchiver archiver = newArchiver();
+        this.mojo.zip(archiver, new File(this.installFolder, "bin/php"), "/bin/php");
+        this.mojo.zip(archiver, new File(this.installFolder, "bin/php-cgi"), "/bin/php-cgi");
+        this.mojo.zip(archiver, new File(this.installFolder, "modules"), "/modules");
+        archiver.write(this.narFile);
+        return this.narFile.length();
+    }
+
+    /**
+     * The developer nar: filtered scripts, the embed library and all headers
+     */
+    @Benchmark
+    public long develNar() throws Exception {
+        final NarArchiver archiver = newArchiver();
+        final String installPath = this.installFolder.getAbsolutePath();
+        this.mojo.zipFilterFile(archiver, new File(this.installFolder, "bin/php-config"), "/bin/php-config", installPath, "${MAVEN.INSTALL.ROOT}");
+        this.mojo.zipFilterFile(archiver, new File(this.installFolder, "bin/phpize"), "/bin/phpize", installPath, "${MAVEN.INSTALL.ROOT}");
+        this.mojo.zip(archiver, new File(this.installFolder, "lib/libphp5.so"), "/lib/libphp5.so");
+        this.mojo.zip(archiver, new File(this.installFolder, "include"), "/include");
+        archiver.write(this.narFile);
+        return this.narFile.length();
+    }
+
+    /**
+     * Header collection as used for the windows developer pack of php 5.3
+     */
+    @Benchmark
+    public long zipHeaders() throws Exception {
+        final NarArchiver archiver = newArchiver();
+        for (final String folder : new String[]{"Zend", "main", "main/streams", "TSRM"}) {
+            this.mojo.zipHeaders(archiver, new File(this.installFolder, "include/php/" + folder), "/include/" + folder);
+        }
+        archiver.write(this.narFile);
+        return this.narFile.length();
+    }
+
+    /**
+     * Tree walk and entry creation only (PackageMojo.add without compression)
+     */
+    @Benchmark
+    public int walkTree() throws Exception {
+        final NarArchiver archiver = newArchiver();
+        this.mojo.zip(archiver, new File(this.installFolder, "include"), "/include");
+        return archiver.getEntryCount();
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the source staging of CopySourcesMojo on a synthetic php-src tree: a full copy into an empty
+ * working directory and an incremental run without changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StagingBenchmark {
+
+    /**
+     * The number of source files
+     */
+    @Param({"5000", "20000"})
+    public int fileCount;
+
+    /**
+     * The size of every source file
+     */
+    @Param({"8192"})
+    public int fileSize;
+
+    /**
+     * The placement strategy
+     */
+    @Param({"copy", "hardlink", "auto"})
+    public String strategy;
+
+    /**
+     * True to compare content hashes
+     */
+    @Param({"false"})
+    public boolean hashContents;
+
+    private File root;
+
+    private File sourceFolder;
+
+    private File targetFolder;
+
+    private File manifestFile;
+
+    private File incrementalTarget;
+
+    private File incrementalManifest;
+
+    @Setup
+    public void setup() throws Exception {
+        this.root = SyntheticTrees.createTempFolder("phpnar-staging");
+        this.sourceFolder = new File(this.root, "src");
+        SyntheticTrees.createSourceTree(this.sourceFolder, this.fileCount, this.fileSize);
+        this.targetFolder = new File(this.root, "full");
+        this.manifestFile = new File(this.root, "full.manifest");
+        this.incrementalTarget = new File(this.root, "incremental");
+        this.incrementalManifest = new File(this.root, "incremental.manifest");
+        newStager().stage(this.sourceFolder.toPath(), this.incrementalTarget.toPath(), this.incrementalManifest);
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanFullTarget() throws Exception {
+        SyntheticTrees.delete(this.targetFolder);
+        this.manifestFile.delete();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        SyntheticTrees.delete(this.root);
+    }
+
+    private SourceStager newStager() {
+        return new SourceStager(new SystemStreamLog(), Runtime.getRuntime().availableProcessors(), this.hashContents, this.strategy,
+            Arrays.asList(SourceStager.DEFAULT_PRIVATE_FILES));
+    }
+
+    /**
+     * Staging into an empty working directory
+     */
+    @Benchmark
+    public int fullStaging() throws Exception {
+        final SourceStager stager = newStager();
+        stager.stage(this.sourceFolder.toPath(), this.targetFolder.toPath(), this.manifestFile);
+        return stager.getCopied();
+    }
+
+    /**
+     * Staging without changed files
+     */
+    @Benchmark
+    public int incrementalStaging() throws Exception {
+        final SourceStager stager = newStager();
+        stager.stage(this.sourceFolder.toPath(), this.incrementalTarget.toPath(), this.incrementalManifest);
+        return stager.getSkipped();
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Synthetic directory trees shaped like php-src and like a phpmaven.install folder.
+ */
+final class SyntheticTrees {
+
+    /**
+     * Folders of php-src outside of ext
+     */
+    private static final String[] SOURCE_FOLDERS = {"Zend", "main", "main/streams", "TSRM", "sapi/cli", "sapi/cgi", "build"};
+
+    /**
+     * Extensions simulated in the source and install trees
+     */
+    private static final String[] EXTENSIONS = {"standard", "date", "pcre", "spl", "reflection", "xml", "json", "mysqlnd", "iconv", "ereg"};
+
+    /**
+     * Line used to fill text files; c-like text compresses like real sources
+     */
+    private static final byte[] SOURCE_LINE = "    if (zend_parse_parameters(ZEND_NUM_ARGS() TSRMLS_CC, \"s|l\", &str, &str_len, &flags) == FAILURE) { return; }\n".getBytes();
+
+    private SyntheticTrees() {
+        // hidden
+    }
+
+    /**
+     * Creates a tree shaped like php-src.
+     * @param root the root folder
+     * @param fileCount the number of files
+     * @param fileSize the size of every file
+     * @throws IOException thrown on write errors
+     */
+    public static void createSourceTree(File root, int fileCount, int fileSize) throws IOException {
+        final Random random = new Random(42);
+        writeText(new File(root, "configure.in"), fileSize);
+        writeText(new File(root, "acinclude.m4"), fileSize);
+        writeText(new File(root, "buildconf"), fileSize);
+        for (int i = 3; i < fileCount; i++) {
+            final String folder;
+            if (i % 3 == 0) {
+                folder = SOURCE_FOLDERS[random.nextInt(SOURCE_FOLDERS.length)];
+            } else {
+                folder = "ext/" + EXTENSIONS[random.nextInt(EXTENSIONS.length)] + (i % 7 == 0 ? "/tests" : "");
+            }
+            final String name;
+            switch (i % 5) {
+                case 0: name = "file" + i + ".h"; break;
+                case 1: name = "file" + i + ".phpt"; break;
+                case 2: name = "config" + i + ".m4"; break;
+                default: name = "file" + i + ".c"; break;
+            }
+            writeText(new File(root, folder + "/" + name), fileSize);
+        }
+    }
+
+    /**
+     * Creates a tree shaped like the phpmaven.install folder of an *ix build.
+     * @param root the root folder
+     * @param fileCount the number of header files
+     * @param fileSize the size of every header file
+     * @throws IOException thrown on write errors
+     */
+    public static void createInstallTree(File root, int fileCount, int fileSize) throws IOException {
+        final Random random = new Random(42);
+        writeBinary(new File(root, "bin/php"), 16 * 1024 * 1024, random);
+        writeBinary(new File(root, "bin/php-cgi"), 16 * 1024 * 1024, random);
+        writeBinary(new File(root, "lib/libphp5.so"), 16 * 1024 * 1024, random);
+        for (final String ext : EXTENSIONS) {
+            writeBinary(new File(root, "modules/" + ext + ".so"), 256 * 1024, random);
+        }
+        final String config = "prefix=\"" + root.getAbsolutePath() + "\"\ninclude_dir=\"" + root.getAbsolutePath() + "/include/php\"\n";
+        writeText(new File(root, "bin/php-config"), fileSize, config);
+        writeText(new File(root, "bin/phpize"), fileSize, config);
+        for (int i = 0; i < fileCount; i++) {
+            final String folder = i % 2 == 0
+                ? SOURCE_FOLDERS[random.nextInt(4)]
+                : "ext/" + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            writeText(new File(root, "include/php/" + folder + "/file" + i + ".h"), fileSize);
+        }
+    }
+
+    /**
+     * Deletes a tree.
+     * @param root the root folder
+     * @throws IOException thrown on delete errors
+     */
+    public static void delete(File root) throws IOException {
+        FileTreeUtils.deleteTree(root.toPath());
+    }
+
+    /**
+     * Creates a temporary folder.
+     * @param prefix the name prefix
+     * @return folder
+     * @throws IOException thrown on errors
+     */
+    public static File createTempFolder(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    private static void writeText(File file, int size) throws IOException {
+        writeText(file, size, "");
+    }
+
+    private static void writeText(File file, int size, String header) throws IOException {
+        file.getParentFile().mkdirs();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            final byte[] head = header.getBytes();
+            out.write(head);
+            for (int written = head.length; written < size; written += SOURCE_LINE.length) {
+                out.write(SOURCE_LINE, 0, Math.min(SOURCE_LINE.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeBinary(File file, int size, Random random) throws IOException {
+        file.getParentFile().mkdirs();
+        final byte[] data = new byte[size];
+        // half random, half zero: compresses like a stripped executable
+        final byte[] noise = new byte[size / 2];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, data, 0, noise.length);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -40,9 +40,9 @@ import org.phpmaven.core.ExecutionUtils;
 abstract class AbstractNarMojo extends AbstractMojo {
     
     /**
-     * true if the nar properties are already injected
+     * The project context key marking projects whose nar properties are already injected
      */
-    private static boolean propertiesInjected = false;
+    private static final String PROPERTIES_INJECTED = AbstractNarMojo.class.getName() + ".propertiesInjected";
     
     /**
      * Flag to control cross compilation
@@ -102,6 +102,14 @@ abstract class AbstractNarMojo extends AbstractMojo {
      */
     private String configureArgs;
     
+    /**
+     * The optimization profile of all aol items not selecting their own one; the profile flags are taken from the
+     * keys [&lt;aol&gt;.]optimization.&lt;name&gt;.cflags and .ldflags of aol.properties (*ix builds only). Empty for
+     * the plain nar options.
+     * @parameter expression="${optimization}"
+     */
+    private String optimization;
+    
     /**
      * @parameter expression="${project}"
      * @required
@@ -115,6 +123,20 @@ abstract class AbstractNarMojo extends AbstractMojo {
      */
     protected List<AolItem> aolItems = new ArrayList<AolItem>();
     
+    /**
+     * Named sets of extensions that are built as shared modules on top of the core build and packaged
+     * as separate nar files (classifier &lt;aol&gt;-&lt;profile name&gt;; *ix builds only)
+     * @parameter
+     */
+    protected List<ExtensionProfile> extensionProfiles = new ArrayList<ExtensionProfile>();
+    
+    /**
+     * True to strip the binaries of the *ix nar files; the debug info is packaged into a separate nar
+     * (classifier &lt;aol&gt;-debug; Linux builds only)
+     * @parameter expression="${stripBinaries}"
+     */
+    protected boolean stripBinaries = false;
+    
     /**
      * Original unfiltered list of aol items
      */
@@ -169,33 +191,42 @@ abstract class AbstractNarMojo extends AbstractMojo {
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        if (!propertiesInjected) {
-            getLog().debug("injecting aol properties\n" + PropertyUtils.loadProperties(AbstractNarMojo.class.getResourceAsStream("aol.properties")));
-            NarProperties.inject(project, AbstractNarMojo.class.getResourceAsStream("aol.properties"));
-            propertiesInjected = true;
+        // the nar properties are a jvm wide singleton shared by all projects of a parallel build (-T); inject the
+        // phpnar defaults once per project for the aol lookups of the nar plugin. The phpnar mojos read the aol
+        // properties of their own project (AolProperties), so projects with different aol.properties overrides
+        // do not see each other's values
+        synchronized (NarProperties.class) {
+            if (this.project.getContextValue(PROPERTIES_INJECTED) == null) {
+                getLog().debug("injecting aol properties\n" + PropertyUtils.loadProperties(AbstractNarMojo.class.getResourceAsStream("aol.properties")));
+                NarProperties.inject(project, AbstractNarMojo.class.getResourceAsStream("aol.properties"));
+                this.project.setContextValue(PROPERTIES_INJECTED, Boolean.TRUE);
+            }
         }
+        AolProperties.getInstance(this.project);
         
-        if (this.aolItems.size() == 0) {
-            this.aolItems.add(new AolItem(this.arch, this.os, this.linker, this.phpDepsHome, this.configureArgs));
+        final List<AolItem> items = new ArrayList<AolItem>(this.aolItems);
+        if (items.size() == 0) {
+            items.add(new AolItem(this.arch, this.os, this.linker, this.phpDepsHome, this.configureArgs));
         }
         
         // filter because of cross compilation
-        this.origAolItems.addAll(this.aolItems);
+        this.origAolItems = new ArrayList<AolItem>(items);
         if (!this.crossCompile || !this.crossCompileWindows) {
-            for (final AolItem item : this.aolItems.toArray(new AolItem[this.aolItems.size()])) {
+            for (final AolItem item : items.toArray(new AolItem[items.size()])) {
                 if (this.crossCompileWindows && !ExecutionUtils.isWindows()) {
-                    this.aolItems.remove(item);
+                    items.remove(item);
                     continue;
                 }
                 if (!crossCompile) {
                     // check os
                     if (!NarUtil.getOS(null).equals(item.getEffectiveOs())) {
-                        this.aolItems.remove(item);
+                        items.remove(item);
                         continue;
                     }
                 }
             }
         }
+        this.aolItems = items;
     }
     
     /**
@@ -206,6 +237,24 @@ abstract class AbstractNarMojo extends AbstractMojo {
         return configureArgs;
     }
 
+    protected void setConfigureArgs(String configureArgs) {
+        this.configureArgs = configureArgs;
+    }
+
+    protected void setExtensionProfiles(List<ExtensionProfile> extensionProfiles) {
+        this.extensionProfiles = extensionProfiles;
+    }
+
+    /**
+     * Returns the optimization profile of an aol item
+     * @param item the aol item
+     * @return optimization profile or null for the plain nar options
+     */
+    protected String getOptimization(AolItem item) {
+        final String result = item.getOptimization() != null ? item.getOptimization() : this.optimization;
+        return result == null || result.length() == 0 ? null : result;
+    }
+
     /**
      * Generates a nar info (source taken from maven-nar-plugin)
      * @return
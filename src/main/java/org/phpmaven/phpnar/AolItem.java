@@ -62,6 +62,16 @@ public class AolItem {
      */
     private String configureArgs;
     
+    /**
+     * The number of make jobs for this item; null to use the global setting
+     */
+    private Integer jobs;
+    
+    /**
+     * The optimization profile for this item; null to use the global setting
+     */
+    private String optimization;
+    
     /**
      * Constructor
      */
@@ -89,6 +99,14 @@ public class AolItem {
         return configureArgs;
     }
 
+    public Integer getJobs() {
+        return jobs;
+    }
+
+    public String getOptimization() {
+        return optimization;
+    }
+
     public File getPhpDepsFolder() {
         return this.phpDepsHome;
     }
@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.nar.NarUtil;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * The aol properties of a project.
+ * <p>
+ * The nar plugin keeps its properties in a jvm wide singleton that is initialized from the aol.properties of the
+ * first project, so the projects of a parallel build (-T) would see each other's overrides. The phpnar mojos
+ * therefore read the aol properties from a per project instance (stored in the project context) that merges
+ * the nar defaults, the phpnar defaults and the aol.properties of the project (nar.aolProperties or
+ * ${basedir}/aol.properties) in increasing priority.
+ * </p>
+ */
+final class AolProperties {
+
+    /**
+     * The project context key of the instance
+     */
+    private static final String CONTEXT_KEY = AolProperties.class.getName();
+
+    /**
+     * The property naming a custom aol.properties file (same key as the nar plugin)
+     */
+    private static final String CUSTOM_AOL_PROPERTY_KEY = "nar.aolProperties";
+
+    /**
+     * The name of the aol properties
+     */
+    private static final String AOL_PROPERTIES = "aol.properties";
+
+    /**
+     * The merged properties
+     */
+    private final Properties properties = new Properties();
+
+    private AolProperties(MavenProject project) throws MojoFailureException {
+        load(NarUtil.class.getResourceAsStream(AOL_PROPERTIES), "nar " + AOL_PROPERTIES);
+        load(AolProperties.class.getResourceAsStream(AOL_PROPERTIES), "phpnar " + AOL_PROPERTIES);
+
+        String custom = project.getProperties().getProperty(CUSTOM_AOL_PROPERTY_KEY);
+        if (custom == null) {
+            custom = System.getProperty(CUSTOM_AOL_PROPERTY_KEY);
+        }
+        final File file = custom != null ? new File(custom) : new File(project.getBasedir(), AOL_PROPERTIES);
+        if (file.isFile()) {
+            try {
+                this.load(new FileInputStream(file), file.getPath());
+            } catch (IOException ex) {
+                throw new MojoFailureException("Error reading " + file, ex);
+            }
+        } else if (custom != null) {
+            throw new MojoFailureException("Custom aol properties " + file + " not found");
+        }
+    }
+
+    /**
+     * Returns the aol properties of a project
+     * @param project the project
+     * @return aol properties
+     * @throws MojoFailureException thrown if the aol properties cannot be read
+     */
+    public static AolProperties getInstance(MavenProject project) throws MojoFailureException {
+        synchronized (project) {
+            AolProperties result = (AolProperties) project.getContextValue(CONTEXT_KEY);
+            if (result == null) {
+                result = new AolProperties(project);
+                project.setContextValue(CONTEXT_KEY, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns a property
+     * @param key the key
+     * @return value or null if the property is not defined
+     */
+    public String getProperty(String key) {
+        return this.properties.getProperty(key);
+    }
+
+    private void load(InputStream in, String name) throws MojoFailureException {
+        if (in == null) {
+            return;
+        }
+        try {
+            try {
+                this.properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            throw new MojoFailureException("Error reading " + name, ex);
+        }
+    }
+
+}
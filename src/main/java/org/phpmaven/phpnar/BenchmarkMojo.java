@@ -0,0 +1,303 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * A goal to benchmark the compiled php.
+ * <p>
+ * Runs php benchmark scripts with the php of every *ix aol and compares the median wall clock time of every
+ * script with a baseline file. The build fails if a script got slower than the configured threshold and the
+ * slowdown exceeds the measured noise (a multiple of the standard deviation of the runs).
+ * </p>
+ *
+ * @goal benchmark
+ * @threadSafe
+ */
+public class BenchmarkMojo extends AbstractNarMojo {
+
+    /**
+     * The benchmark scripts (relative to the php sources or absolute)
+     * @parameter
+     */
+    private List<String> benchmarkScripts = new ArrayList<String>(Arrays.asList("Zend/bench.php", "Zend/micro_bench.php"));
+
+    /**
+     * The number of runs per script before measuring
+     * @parameter expression="${benchmarkWarmups}"
+     */
+    private int benchmarkWarmups = 1;
+
+    /**
+     * The number of measured runs per script
+     * @parameter expression="${benchmarkRuns}"
+     */
+    private int benchmarkRuns = 5;
+
+    /**
+     * The baseline file holding the median run time of every aol and script
+     * @parameter expression="${benchmarkBaseline}" default-value="${basedir}/src/benchmark/baseline.properties"
+     */
+    private File benchmarkBaseline;
+
+    /**
+     * The slowdown (in percent of the baseline median) that fails the build
+     * @parameter expression="${benchmarkThreshold}"
+     */
+    private double benchmarkThreshold = 10;
+
+    /**
+     * The number of standard deviations (the larger one of the measured runs and the baseline) the median must
+     * additionally be slower than the baseline median to fail the build
+     * @parameter expression="${benchmarkNoise}"
+     */
+    private double benchmarkNoise = 2;
+
+    /**
+     * True to write the results to the baseline file (the baseline is always written if it does not exist)
+     * @parameter expression="${updateBaseline}"
+     */
+    private boolean updateBaseline = false;
+
+    /**
+     * True to skip the benchmarks
+     * @parameter expression="${skipBenchmarks}"
+     */
+    private boolean skipBenchmarks = false;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        super.execute();
+
+        if (this.skipBenchmarks) {
+            getLog().info("Benchmarks are skipped.");
+            return;
+        }
+        if (this.benchmarkRuns < 1) {
+            throw new MojoExecutionException("benchmarkRuns must be at least 1 (was " + this.benchmarkRuns + ")");
+        }
+        if (this.benchmarkWarmups < 0) {
+            throw new MojoExecutionException("benchmarkWarmups must not be negative (was " + this.benchmarkWarmups + ")");
+        }
+        if (this.benchmarkNoise < 0) {
+            throw new MojoExecutionException("benchmarkNoise must not be negative (was " + this.benchmarkNoise + ")");
+        }
+
+        final Properties baseline = new Properties();
+        if (this.benchmarkBaseline.exists()) {
+            try {
+                final InputStream in = new FileInputStream(this.benchmarkBaseline);
+                try {
+                    baseline.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                throw new MojoExecutionException("Error reading " + this.benchmarkBaseline, ex);
+            }
+        }
+
+        final BuildTimings timings = new BuildTimings("benchmark");
+        final Map<String, String> results = new TreeMap<String, String>();
+        final List<String> regressions = new ArrayList<String>();
+        try {
+            for (final AolItem item : this.aolItems) {
+                item.check(getLog(), this.project);
+                if ("Windows".equalsIgnoreCase(item.getEffectiveOs())) {
+                    getLog().warn("Benchmarks are not supported for windows builds; skipping " + item);
+                    continue;
+                }
+                this.benchmark(item, timings, baseline, results, regressions);
+            }
+        } finally {
+            timings.report(getLog(), new File(this.project.getBuild().getDirectory()));
+        }
+
+        this.writeResults(new File(this.project.getBuild().getDirectory(), "phpnar-benchmarks/results.properties"), results);
+        if (this.updateBaseline || !this.benchmarkBaseline.exists()) {
+            for (final Map.Entry<Object, Object> entry : baseline.entrySet()) {
+                if (!results.containsKey(entry.getKey())) {
+                    results.put((String) entry.getKey(), (String) entry.getValue());
+                }
+            }
+            this.writeResults(this.benchmarkBaseline, results);
+            getLog().info("Updated benchmark baseline " + this.benchmarkBaseline);
+            return;
+        }
+
+        if (!regressions.isEmpty()) {
+            for (final String regression : regressions) {
+                getLog().error(regression);
+            }
+            throw new MojoFailureException(regressions.size() + " benchmarks are more than " + this.benchmarkThreshold + "% slower than the baseline");
+        }
+    }
+
+    /**
+     * Runs the benchmarks of an aol item
+     * @param item the aol item
+     * @param timings the timings
+     * @param baseline the baseline
+     * @param results receives the results
+     * @param regressions receives the regressions
+     * @throws MojoFailureException
+     */
+    private void benchmark(AolItem item, BuildTimings timings, Properties baseline, Map<String, String> results, List<String> regressions) throws MojoFailureException {
+        final File targetFolder = new File(this.project.getBuild().getDirectory() + "/" + item.getAol());
+        final File php = new File(targetFolder, "phpmaven.install/bin/php");
+        if (!php.exists()) {
+            throw new MojoFailureException("executable " + php + " not found. Possible build failure.");
+        }
+        final String aol = item.getAol().getKey();
+
+        getLog().info("Benchmarks for " + item + ":");
+        getLog().info(String.format(Locale.ENGLISH, "  %-32s %10s %10s %10s %9s", "script", "median", "stddev", "baseline", "change"));
+        for (final String script : this.benchmarkScripts) {
+            final File scriptFile = new File(script).isAbsolute() ? new File(script) : new File(targetFolder, script);
+            if (!scriptFile.isFile()) {
+                throw new MojoFailureException("benchmark script " + scriptFile + " not found");
+            }
+
+            final BuildTimings.Phase phase = timings.start(aol, "benchmark " + script);
+            final double[] times = new double[this.benchmarkRuns];
+            for (int i = -this.benchmarkWarmups; i < this.benchmarkRuns; i++) {
+                timings.countProcesses(1);
+                final double time = run(php, scriptFile, targetFolder);
+                if (i >= 0) {
+                    times[i] = time;
+                }
+            }
+            phase.stop();
+
+            final double median = median(times);
+            final double stddev = stddev(times);
+            final String key = aol + "." + script;
+            results.put(key + ".median", String.format(Locale.ENGLISH, "%.4f", median));
+            results.put(key + ".stddev", String.format(Locale.ENGLISH, "%.4f", stddev));
+
+            final String base = baseline.getProperty(key + ".median");
+            String change = "";
+            if (base != null) {
+                final double baseMedian = Double.parseDouble(base);
+                final double percent = (median - baseMedian) * 100 / baseMedian;
+                // a slowdown within the spread of the runs is noise, not a regression
+                final String baseStddev = baseline.getProperty(key + ".stddev");
+                final double noise = this.benchmarkNoise * Math.max(stddev, baseStddev == null ? 0 : Double.parseDouble(baseStddev));
+                change = String.format(Locale.ENGLISH, "%+.1f%%", percent);
+                if (percent > this.benchmarkThreshold && median - baseMedian > noise) {
+                    regressions.add(String.format(Locale.ENGLISH, "%s %s: median %.3fs, baseline %.3fs (%s, noise %.3fs)", item, script, median, baseMedian, change, noise));
+                }
+            }
+            getLog().info(String.format(Locale.ENGLISH, "  %-32s %9.3fs %9.3fs %10s %9s", script, median, stddev,
+                base == null ? "n/a" : base + "s", change));
+        }
+    }
+
+    /**
+     * Runs a benchmark script once
+     * @param php the php executable
+     * @param script the script
+     * @param workDir the working directory
+     * @return wall clock time in seconds
+     * @throws MojoFailureException
+     */
+    private double run(File php, File script, File workDir) throws MojoFailureException {
+        final Commandline cli = new Commandline();
+        cli.setExecutable(php.getAbsolutePath());
+        cli.setWorkingDirectory(workDir);
+        cli.createArg().setValue(script.getAbsolutePath());
+        final StreamConsumer consumer = new StreamConsumer() {
+            @Override
+            public void consumeLine(String line) {
+                getLog().debug(line);
+            }
+        };
+        final long start = System.nanoTime();
+        try {
+            final int result = CommandLineUtils.executeCommandLine(cli, consumer, consumer);
+            if (result != 0) {
+                throw new MojoFailureException("benchmark " + script + " failed. Return code " + result);
+            }
+        } catch (CommandLineException ex) {
+            throw new MojoFailureException("Error running benchmark " + script, ex);
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static double median(double[] values) {
+        final List<Double> sorted = new ArrayList<Double>();
+        for (final double value : values) {
+            sorted.add(value);
+        }
+        Collections.sort(sorted);
+        final int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    private static double stddev(double[] values) {
+        double mean = 0;
+        for (final double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        double variance = 0;
+        for (final double value : values) {
+            variance += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(variance / values.length);
+    }
+
+    /**
+     * Writes results sorted by key
+     * @param file the target file
+     * @param results the results
+     * @throws MojoExecutionException
+     */
+    private void writeResults(File file, Map<String, String> results) throws MojoExecutionException {
+        final StringBuilder content = new StringBuilder();
+        content.append("# php benchmark results (median and standard deviation of the wall clock time in seconds)\n");
+        for (final Map.Entry<String, String> entry : new TreeMap<String, String>(results).entrySet()) {
+            content.append(entry.getKey().replace(" ", "\\ ").replace(":", "\\:").replace("=", "\\="))
+                .append('=').append(entry.getValue()).append('\n');
+        }
+        try {
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file.getAbsolutePath(), "ISO-8859-1", content.toString());
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Error writing " + file, ex);
+        }
+    }
+
+}
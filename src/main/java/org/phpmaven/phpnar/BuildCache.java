@@ -0,0 +1,483 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A local, content addressed cache for compiled php install trees.
+ * <p>
+ * Every entry is a directory named by the fingerprint of the build inputs. A marker file
+ * &lt;fingerprint&gt;.used records the last access (modification time) and the size of the entry (contents);
+ * entries are evicted in least recently used order as soon as the cache exceeds its size limit. Restores hold a shared file lock on the entry and the eviction
+ * skips locked entries, so concurrent builds (threads or processes) can share the cache directory.
+ * </p>
+ */
+final class BuildCache {
+
+    /**
+     * Version of the cache layout; part of every fingerprint
+     */
+    private static final String VERSION = "2";
+
+    /**
+     * Guards the markers, the eviction and the read locks of all mojos of this jvm; the projects of a parallel
+     * build (-T) share the cache directory. The trees are copied without holding this lock.
+     */
+    private static final Object LOCK = new Object();
+
+    /**
+     * The file inside every entry that is locked (shared) while the entry is restored and (exclusive) while
+     * it is evicted, so that processes sharing the cache directory never evict an entry being restored
+     */
+    private static final String LOCK_FILE = ".phpnar-lock";
+
+    /**
+     * The milliseconds to wait between two attempts to lock an entry that is being evicted by another process
+     */
+    private static final long LOCK_RETRY = 50;
+
+    /**
+     * The read locks held by this jvm by cache entry; file locks are held per process, so the threads of
+     * this jvm share one lock per entry
+     */
+    private static final Map<File, EntryLock> READERS = new HashMap<File, EntryLock>();
+
+    /**
+     * The cache directory
+     */
+    private final File directory;
+
+    /**
+     * The maximum size in bytes
+     */
+    private final long maxSize;
+
+    /**
+     * Constructor
+     * @param directory the cache directory
+     * @param maxSize the maximum cache size in bytes
+     */
+    public BuildCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Calculates the hash of the php sources; the hash does not depend on the aol, so it is calculated once
+     * per build and passed to {@link #fingerprint(String, String, Map)} for every aol.
+     * @param sourceFolder the php sources
+     * @return hex encoded hash
+     * @throws IOException thrown on read errors
+     */
+    public static String hashSources(File sourceFolder) throws IOException {
+        final MessageDigest digest = newDigest();
+        hashTree(digest, sourceFolder, "", new byte[65536]);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Calculates the fingerprint of the build inputs.
+     * @param sourceHash the hash of the php sources (see {@link #hashSources(File)})
+     * @param configureLine the effective configure line
+     * @param properties further build properties (f.e. the nar properties used for the aol)
+     * @return hex encoded fingerprint
+     */
+    public static String fingerprint(String sourceHash, String configureLine, Map<String, String> properties) {
+        final MessageDigest digest = newDigest();
+        update(digest, VERSION);
+        update(digest, configureLine);
+        for (final Map.Entry<String, String> entry : new TreeMap<String, String>(properties).entrySet()) {
+            update(digest, entry.getKey() + "=" + entry.getValue());
+        }
+        update(digest, sourceHash);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Restores a cached install tree.
+     * @param log the logger
+     * @param fingerprint the build fingerprint
+     * @param installFolder the install folder to be replaced by the cached tree
+     * @return true on cache hit; false if there is no cache entry
+     * @throws IOException thrown on copy errors
+     */
+    public boolean restore(Log log, String fingerprint, File installFolder) throws IOException {
+        final File entry = new File(this.directory, fingerprint);
+        final EntryLock lock = acquire(entry);
+        if (lock == null) {
+            log.info("Build cache miss (" + fingerprint + ")");
+            return false;
+        }
+        try {
+            log.info("Build cache hit (" + fingerprint + "); restoring " + installFolder);
+            FileTreeUtils.deleteTree(installFolder.toPath());
+            FileTreeUtils.copyTree(entry.toPath(), installFolder.toPath());
+            new File(installFolder, LOCK_FILE).delete();
+        } finally {
+            release(entry, lock);
+        }
+        synchronized (LOCK) {
+            touch(fingerprint, -1);
+        }
+        return true;
+    }
+
+    /**
+     * Stores an install tree and evicts the least recently used entries if the cache is too large.
+     * @param log the logger
+     * @param fingerprint the build fingerprint
+     * @param installFolder the install folder
+     * @throws IOException thrown on copy errors
+     */
+    public void store(Log log, String fingerprint, File installFolder) throws IOException {
+        final File entry = new File(this.directory, fingerprint);
+        long entrySize = -1;
+        if (!entry.exists()) {
+            // copy to a temporary folder first so that concurrent builds never see partial entries
+            final Path temp = new File(this.directory, fingerprint + ".tmp-" + System.nanoTime()).toPath();
+            FileTreeUtils.copyTree(installFolder.toPath(), temp);
+            new File(temp.toFile(), LOCK_FILE).createNewFile();
+            entrySize = FileTreeUtils.sizeOf(temp);
+            synchronized (LOCK) {
+                try {
+                    Files.move(temp, entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException ex) {
+                    // another build stored the same entry
+                    FileTreeUtils.deleteTree(temp);
+                }
+            }
+            log.info("Stored " + installFolder + " in build cache (" + fingerprint + ")");
+        }
+        final Map<File, Long> measured = this.measureUnrecorded(log);
+        final List<Path> evicted;
+        synchronized (LOCK) {
+            for (final Map.Entry<File, Long> marker : measured.entrySet()) {
+                if (marker.getKey().exists() && readSize(marker.getKey()) < 0) {
+                    // keep the last access
+                    final long lastModified = marker.getKey().lastModified();
+                    writeSize(marker.getKey(), marker.getValue());
+                    marker.getKey().setLastModified(lastModified);
+                }
+            }
+            touch(fingerprint, entrySize);
+            evicted = this.evict(log);
+        }
+        // the evicted entries were renamed, nobody reads them any more
+        for (final Path path : evicted) {
+            FileTreeUtils.deleteTree(path);
+        }
+    }
+
+    /**
+     * Locks a cache entry for reading; waits while another process evicts the entry. Must be called
+     * without holding the file lock of the entry. {@link #LOCK} is released between the attempts, so the
+     * other builds of this jvm are not blocked by the eviction of another process.
+     * @param entry the cache entry
+     * @return the lock or null if the entry does not exist
+     * @throws IOException thrown if the lock file cannot be locked
+     */
+    private static EntryLock acquire(File entry) throws IOException {
+        while (true) {
+            synchronized (LOCK) {
+                EntryLock result = READERS.get(entry);
+                if (result == null) {
+                    if (!entry.isDirectory()) {
+                        return null;
+                    }
+                    final Path lockFile = new File(entry, LOCK_FILE).toPath();
+                    final FileChannel channel;
+                    try {
+                        channel = FileChannel.open(lockFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    } catch (NoSuchFileException ex) {
+                        // evicted in the meantime
+                        return null;
+                    }
+                    boolean locked = false;
+                    try {
+                        if (channel.tryLock(0, Long.MAX_VALUE, true) != null) {
+                            // another process may have evicted (renamed) the entry while we waited for the lock
+                            if (!Files.exists(lockFile)) {
+                                return null;
+                            }
+                            locked = true;
+                        }
+                    } finally {
+                        if (!locked) {
+                            channel.close();
+                        }
+                    }
+                    if (locked) {
+                        result = new EntryLock(channel);
+                        READERS.put(entry, result);
+                    }
+                }
+                if (result != null) {
+                    result.readers++;
+                    return result;
+                }
+            }
+            // another process is evicting the entry
+            try {
+                Thread.sleep(LOCK_RETRY);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for build cache entry " + entry);
+            }
+        }
+    }
+
+    /**
+     * Releases a read lock of a cache entry.
+     * @param entry the cache entry
+     * @param lock the lock returned by {@link #acquire(File)}
+     * @throws IOException thrown if the lock file cannot be closed
+     */
+    private static void release(File entry, EntryLock lock) throws IOException {
+        synchronized (LOCK) {
+            if (--lock.readers == 0) {
+                READERS.remove(entry);
+                lock.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Measures the entries whose marker does not record their size (f.e. stored by an older version of the
+     * plugin or restored after their marker was lost). Walks the trees without holding {@link #LOCK}.
+     * @param log the logger
+     * @return the sizes by marker file
+     */
+    private Map<File, Long> measureUnrecorded(Log log) {
+        final Map<File, Long> result = new HashMap<File, Long>();
+        final File[] markers = this.directory.listFiles();
+        if (markers == null) {
+            return result;
+        }
+        for (final File marker : markers) {
+            if (!marker.getName().endsWith(".used") || readSize(marker) >= 0) {
+                continue;
+            }
+            final File entry = new File(this.directory, marker.getName().substring(0, marker.getName().length() - 5));
+            if (entry.isDirectory()) {
+                try {
+                    result.put(marker, FileTreeUtils.sizeOf(entry.toPath()));
+                } catch (IOException ex) {
+                    log.debug("Unable to determine size of cache entry " + entry, ex);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits into its size limit. Entries that are
+     * being restored (by this or another process) are skipped. Only reads the sizes recorded in the markers;
+     * must be called while holding {@link #LOCK}.
+     * @param log the logger
+     * @return the evicted entries (renamed; to be deleted by the caller without holding the lock)
+     */
+    private List<Path> evict(Log log) {
+        final List<Path> evicted = new ArrayList<Path>();
+        final File[] markers = this.directory.listFiles();
+        if (markers == null) {
+            return evicted;
+        }
+        final List<File> entries = new ArrayList<File>();
+        long size = 0;
+        for (final File marker : markers) {
+            if (!marker.getName().endsWith(".used")) {
+                continue;
+            }
+            final File entry = new File(this.directory, marker.getName().substring(0, marker.getName().length() - 5));
+            final long entrySize = readSize(marker);
+            if (entrySize >= 0 && entry.isDirectory()) {
+                size += entrySize;
+                entries.add(marker);
+            }
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.valueOf(o1.lastModified()).compareTo(o2.lastModified());
+            }
+        });
+        for (final File marker : entries) {
+            if (size <= this.maxSize) {
+                break;
+            }
+            final File entry = new File(this.directory, marker.getName().substring(0, marker.getName().length() - 5));
+            if (READERS.containsKey(entry)) {
+                continue;
+            }
+            try {
+                final long entrySize = readSize(marker);
+                final Path tombstone = new File(this.directory, entry.getName() + ".evicted-" + System.nanoTime()).toPath();
+                final FileChannel channel = FileChannel.open(new File(entry, LOCK_FILE).toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                try {
+                    if (channel.tryLock() == null) {
+                        log.debug("Build cache entry " + entry.getName() + " is in use; not evicted");
+                        continue;
+                    }
+                    Files.move(entry.toPath(), tombstone, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    channel.close();
+                }
+                marker.delete();
+                size -= entrySize;
+                evicted.add(tombstone);
+                log.info("Evicted " + entry.getName() + " from build cache");
+            } catch (NoSuchFileException ex) {
+                // evicted by another process
+                marker.delete();
+            } catch (IOException ex) {
+                log.warn("Unable to evict build cache entry " + entry, ex);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Records an access to a cache entry.
+     * @param fingerprint the build fingerprint
+     * @param size the size of the entry to be recorded if the marker does not record it yet; -1 if unknown
+     * @throws IOException thrown if the marker file cannot be written
+     */
+    private void touch(String fingerprint, long size) throws IOException {
+        final File marker = new File(this.directory, fingerprint + ".used");
+        if (!marker.exists()) {
+            marker.createNewFile();
+        }
+        if (size >= 0 && readSize(marker) < 0) {
+            writeSize(marker, size);
+        }
+        marker.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Reads the entry size recorded in a marker file.
+     * @param marker the marker file
+     * @return size in bytes or -1 if the marker does not record a size
+     */
+    static long readSize(File marker) {
+        try {
+            final String content = new String(Files.readAllBytes(marker.toPath()), "UTF-8").trim();
+            return content.length() == 0 ? -1 : Long.parseLong(content);
+        } catch (IOException ex) {
+            return -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static void writeSize(File marker, long size) throws IOException {
+        Files.write(marker.toPath(), String.valueOf(size).getBytes("UTF-8"));
+    }
+
+    private static void hashTree(MessageDigest digest, File dir, String prefix, byte[] buffer) throws IOException {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (final File file : files) {
+            final String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                hashTree(digest, file, name + "/", buffer);
+            } else {
+                update(digest, name);
+                final InputStream in = new FileInputStream(file);
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final StringBuilder result = new StringBuilder();
+        for (final byte b : bytes) {
+            result.append(String.format("%02x", b & 0xff));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The read lock of a cache entry held by this jvm
+     */
+    private static final class EntryLock {
+
+        /**
+         * The channel holding the shared file lock
+         */
+        private final FileChannel channel;
+
+        /**
+         * The number of threads restoring the entry
+         */
+        private int readers;
+
+        EntryLock(FileChannel channel) {
+            this.channel = channel;
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Detection of the number of parallel make jobs.
+ * <p>
+ * Starts with the available processors and reduces the value by the cgroup cpu quota (containers),
+ * the available memory and the current system load.
+ * </p>
+ */
+final class BuildJobs {
+
+    private BuildJobs() {
+        // hidden
+    }
+
+    /**
+     * The root of the file system holding /proc and /sys
+     */
+    private static final File ROOT = new File("/");
+
+    /**
+     * Detects the number of make jobs for this machine.
+     * @param log the logger
+     * @param memoryPerJob the memory (in MB) a single compiler job is expected to need
+     * @return number of jobs (at least 1)
+     */
+    public static int detect(Log log, int memoryPerJob) {
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        int jobs = cpus;
+        final StringBuilder reason = new StringBuilder("cpus=" + cpus);
+
+        double quota;
+        try {
+            quota = cgroupCpuQuota(ROOT);
+        } catch (NumberFormatException ex) {
+            quota = -1;
+        }
+        if (quota > 0) {
+            jobs = Math.min(jobs, Math.max(1, (int) Math.ceil(quota)));
+            reason.append(", cpu quota=").append(quota);
+        }
+
+        long memory;
+        try {
+            memory = availableMemory(ROOT);
+        } catch (NumberFormatException ex) {
+            memory = -1;
+        }
+        if (memory > 0 && memoryPerJob > 0) {
+            jobs = Math.min(jobs, (int) Math.max(1, memory / memoryPerJob));
+            reason.append(", available memory=").append(memory).append("MB");
+        }
+
+        final double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        if (load >= 0) {
+            jobs = Math.min(jobs, Math.max(1, (int) Math.ceil(cpus - load)));
+            reason.append(", load average=").append(load);
+        }
+
+        log.info("Using " + jobs + " make jobs (" + reason + ")");
+        return jobs;
+    }
+
+    /**
+     * Returns the cgroup cpu quota (in cpus).
+     * @param root the root of the file system
+     * @return quota or -1 if there is no limit
+     */
+    static double cgroupCpuQuota(File root) {
+        // cgroup v2: "<quota> <period>" or "max <period>"
+        final String max = read(root, "sys/fs/cgroup/cpu.max");
+        if (max != null) {
+            final String[] parts = max.split("\\s+");
+            if (parts.length == 2 && !"max".equals(parts[0])) {
+                return Double.parseDouble(parts[0]) / Double.parseDouble(parts[1]);
+            }
+            return -1;
+        }
+        // cgroup v1
+        final String quota = read(root, "sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+        final String period = read(root, "sys/fs/cgroup/cpu/cpu.cfs_period_us");
+        if (quota != null && period != null && Long.parseLong(quota) > 0) {
+            return Double.parseDouble(quota) / Double.parseDouble(period);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the available memory in MB, respecting cgroup memory limits.
+     * @param root the root of the file system
+     * @return memory or -1 if it is unknown
+     */
+    static long availableMemory(File root) {
+        long available = -1;
+        final String meminfo = read(root, "proc/meminfo");
+        if (meminfo != null) {
+            for (final String line : meminfo.split("\n")) {
+                if (line.startsWith("MemAvailable:")) {
+                    available = Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024;
+                }
+            }
+        }
+
+        String limit = read(root, "sys/fs/cgroup/memory.max");
+        String usage = read(root, "sys/fs/cgroup/memory.current");
+        if (limit == null) {
+            limit = read(root, "sys/fs/cgroup/memory/memory.limit_in_bytes");
+            usage = read(root, "sys/fs/cgroup/memory/memory.usage_in_bytes");
+        }
+        if (limit != null && usage != null && !"max".equals(limit)) {
+            final long free = (Long.parseLong(limit) - Long.parseLong(usage)) / (1024 * 1024);
+            // cgroup v1 reports a huge number if there is no limit
+            if (free >= 0 && (available < 0 || free < available)) {
+                available = free;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Reads a (small) system file.
+     * @param root the root of the file system
+     * @param path the file path (relative to the root)
+     * @return trimmed contents or null if the file cannot be read
+     */
+    private static String read(File root, String path) {
+        final File file = new File(root, path);
+        if (!file.canRead()) {
+            return null;
+        }
+        try {
+            return FileUtils.fileRead(file).trim();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+}
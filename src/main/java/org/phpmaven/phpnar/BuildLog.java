@@ -0,0 +1,202 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Captures the output of a build script in a log file.
+ * <p>
+ * The lines are handed over to a background thread that writes them through a buffered writer, so the
+ * output pumps of the build process only wait for the disk if the bounded queue is full. The console only
+ * receives progress lines; the last lines of the output are kept in a ring buffer and printed if the build
+ * fails. If the log file cannot be written (f.e. the disk is full) the lines go to the console instead.
+ * </p>
+ */
+final class BuildLog {
+
+    /**
+     * Marks the end of the queued lines
+     */
+    private static final String EOF = new String("EOF");
+
+    /**
+     * The maximum number of queued lines
+     */
+    private static final int CAPACITY = 16384;
+
+    /**
+     * The console logger
+     */
+    private final Log console;
+
+    /**
+     * The log file
+     */
+    private final File file;
+
+    /**
+     * The maximum number of lines in the ring buffer
+     */
+    private final int tailLines;
+
+    /**
+     * The lines to be written
+     */
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(CAPACITY);
+
+    /**
+     * The last lines of the output
+     */
+    private final ArrayDeque<String> tail = new ArrayDeque<String>();
+
+    /**
+     * The writer thread
+     */
+    private final Thread writerThread;
+
+    /**
+     * The first write error (or null)
+     */
+    private volatile IOException error;
+
+    /**
+     * Constructor; opens the log file and starts the writer thread
+     * @param console the console logger
+     * @param file the log file
+     * @param tailLines the number of lines to be printed on failure
+     * @throws IOException thrown if the log file cannot be created
+     */
+    public BuildLog(Log console, File file, int tailLines) throws IOException {
+        this.console = console;
+        this.file = file;
+        this.tailLines = tailLines;
+        file.getParentFile().mkdirs();
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 65536);
+        this.writerThread = new Thread("phpnar-build-log-" + file.getParentFile().getName()) {
+            @Override
+            public void run() {
+                drain(writer);
+            }
+        };
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    private void drain(Writer writer) {
+        try {
+            try {
+                String line;
+                while ((line = this.queue.take()) != EOF) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            this.error = ex;
+            this.console.warn("Unable to write " + this.file + "; continuing on the console", ex);
+        } catch (InterruptedException ex) {
+            this.error = new InterruptedIOException("log writer interrupted");
+            Thread.currentThread().interrupt();
+        }
+        // nobody drains the queue any more
+        this.queue.clear();
+    }
+
+    /**
+     * Queues a line for the writer thread; waits while the queue is full.
+     * @param line the line
+     * @return false if the log file is not written any more
+     */
+    private boolean enqueue(String line) {
+        try {
+            while (this.error == null) {
+                if (this.queue.offer(line, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Records a line of the build output (file and ring buffer only).
+     * @param line the line
+     */
+    public void line(String line) {
+        if (!this.enqueue(line)) {
+            this.console.info(line);
+        }
+        if (this.tailLines <= 0) {
+            return;
+        }
+        synchronized (this.tail) {
+            if (this.tail.size() == this.tailLines) {
+                this.tail.removeFirst();
+            }
+            this.tail.addLast(line);
+        }
+    }
+
+    /**
+     * Records a progress line (file and console).
+     * @param line the line
+     */
+    public void progress(String line) {
+        this.enqueue(line);
+        this.console.info(line);
+    }
+
+    /**
+     * Prints the last lines of the build output to the console.
+     */
+    public void printTail() {
+        synchronized (this.tail) {
+            this.console.error("Last " + this.tail.size() + " lines of " + this.file + ":");
+            for (final String line : this.tail) {
+                this.console.error(line);
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining lines and closes the log file.
+     */
+    public void close() {
+        this.enqueue(EOF);
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
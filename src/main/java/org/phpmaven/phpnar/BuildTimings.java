@@ -0,0 +1,297 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Wall clock and cpu time per goal, aol and phase.
+ * <p>
+ * Phases running inside the jvm are measured directly (cpu time of the jvm process, so that work done by
+ * worker pools is included; falls back to the cpu time of the current thread). Phases of the
+ * generated build scripts are measured by the bash "time" keyword; the scripts print marker lines
+ * (see {@link #scriptTime(String)}) at the start and the end of every phase that are picked up from the script output.
+ * </p>
+ * <p>
+ * The results are written to target/phpnar-timings/&lt;goal&gt;.json and &lt;goal&gt;.om (OpenMetrics text format)
+ * and printed as a summary table together with the number of processes spawned by the plugin (the children of
+ * the build scripts are not counted).
+ * </p>
+ */
+final class BuildTimings {
+
+    /**
+     * Prefix of all marker lines printed by the build scripts
+     */
+    private static final String MARKER_PREFIX = "##phpmaven-";
+
+    /**
+     * Prefix of the marker lines printed by the build scripts when a phase starts
+     */
+    private static final String START_MARKER = MARKER_PREFIX + "start ";
+
+    /**
+     * Prefix of the marker lines printed by the build scripts when a phase ends
+     */
+    private static final String MARKER = MARKER_PREFIX + "phase";
+
+    /**
+     * Pattern of the marker lines: phase, real, user and sys seconds
+     */
+    private static final Pattern MARKER_PATTERN = Pattern.compile("^" + MARKER + " (\\S+) ([0-9.,]+) ([0-9.,]+) ([0-9.,]+)$");
+
+    /**
+     * The goal
+     */
+    private final String goal;
+
+    /**
+     * The recorded phases
+     */
+    private final List<Record> records = new ArrayList<Record>();
+
+    /**
+     * The number of spawned processes
+     */
+    private final AtomicInteger processes = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param goal the goal name
+     */
+    public BuildTimings(String goal) {
+        this.goal = goal;
+    }
+
+    /**
+     * Starts measuring a phase.
+     * @param aol the aol (or null)
+     * @param phase the phase name
+     * @return the running phase
+     */
+    public Phase start(String aol, String phase) {
+        return new Phase(aol, phase);
+    }
+
+    /**
+     * Records a phase.
+     * @param aol the aol (or null)
+     * @param phase the phase name
+     * @param wall the wall clock time in seconds
+     * @param cpu the cpu time in seconds or -1 if unknown
+     */
+    public synchronized void record(String aol, String phase, double wall, double cpu) {
+        this.records.add(new Record(aol == null ? "" : aol, phase, wall, cpu));
+    }
+
+    /**
+     * Counts processes spawned by the plugin.
+     * @param count the number of processes
+     */
+    public void countProcesses(int count) {
+        this.processes.addAndGet(count);
+    }
+
+    /**
+     * Returns the shell prefix that lets bash print marker lines with the start and the timing of the following command.
+     * @param phase the phase name
+     * @return script code to be placed in front of a command
+     */
+    public static String scriptTime(String phase) {
+        return "echo '" + START_MARKER + phase + "' >&2; TIMEFORMAT='" + MARKER + " " + phase + " %3R %3U %3S'; time ";
+    }
+
+    /**
+     * Records a marker line printed by a build script.
+     * @param aol the aol
+     * @param line the output line
+     * @return progress message to be shown instead of the marker line or null if the line was no marker line
+     */
+    public String consumeMarker(String aol, String line) {
+        if (!line.startsWith(MARKER_PREFIX)) {
+            return null;
+        }
+        if (line.startsWith(START_MARKER)) {
+            return "Starting " + line.substring(START_MARKER.length()).trim();
+        }
+        final Matcher matcher = MARKER_PATTERN.matcher(line.trim());
+        if (!matcher.matches()) {
+            return line;
+        }
+        final double wall = parse(matcher.group(2));
+        this.record(aol, matcher.group(1), wall, parse(matcher.group(3)) + parse(matcher.group(4)));
+        return String.format(Locale.ENGLISH, "Finished %s in %.1fs", matcher.group(1), wall);
+    }
+
+    private static double parse(String value) {
+        return Double.parseDouble(value.replace(',', '.'));
+    }
+
+    /**
+     * Writes the report files and prints the summary table.
+     * @param log the logger
+     * @param buildDirectory the build directory (target)
+     */
+    public synchronized void report(Log log, File buildDirectory) {
+        if (this.records.isEmpty() && this.processes.get() == 0) {
+            return;
+        }
+        log.info("Timings (" + this.goal + "):");
+        log.info(String.format(Locale.ENGLISH, "  %-28s %-24s %10s %10s", "aol", "phase", "wall", "cpu"));
+        for (final Record record : this.records) {
+            log.info(String.format(Locale.ENGLISH, "  %-28s %-24s %9.3fs %10s", record.aol, record.phase, record.wall,
+                record.cpu < 0 ? "n/a" : String.format(Locale.ENGLISH, "%9.3fs", record.cpu)));
+        }
+        log.info("  Processes spawned: " + this.processes.get());
+
+        final File reportDir = new File(buildDirectory, "phpnar-timings");
+        reportDir.mkdirs();
+        try {
+            FileUtils.fileWrite(new File(reportDir, this.goal + ".json").getAbsolutePath(), "UTF-8", this.toJson());
+            FileUtils.fileWrite(new File(reportDir, this.goal + ".om").getAbsolutePath(), "UTF-8", this.toOpenMetrics());
+        } catch (IOException ex) {
+            log.warn("Unable to write timing report", ex);
+        }
+    }
+
+    private String toJson() {
+        final StringBuilder result = new StringBuilder();
+        result.append("{\n  \"goal\": \"").append(escape(this.goal)).append("\",\n");
+        result.append("  \"processesSpawned\": ").append(this.processes.get()).append(",\n  \"phases\": [");
+        boolean first = true;
+        for (final Record record : this.records) {
+            result.append(first ? "\n" : ",\n");
+            first = false;
+            result.append("    {\"aol\": \"").append(escape(record.aol))
+                .append("\", \"phase\": \"").append(escape(record.phase))
+                .append("\", \"wallSeconds\": ").append(String.format(Locale.ENGLISH, "%.3f", record.wall))
+                .append(", \"cpuSeconds\": ").append(record.cpu < 0 ? "null" : String.format(Locale.ENGLISH, "%.3f", record.cpu))
+                .append("}");
+        }
+        result.append("\n  ]\n}\n");
+        return result.toString();
+    }
+
+    private String toOpenMetrics() {
+        final StringBuilder result = new StringBuilder();
+        result.append("# TYPE phpnar_phase_wall_seconds gauge\n");
+        result.append("# UNIT phpnar_phase_wall_seconds seconds\n");
+        result.append("# HELP phpnar_phase_wall_seconds Wall clock time of a build phase.\n");
+        for (final Record record : this.records) {
+            result.append("phpnar_phase_wall_seconds").append(this.labels(record))
+                .append(' ').append(String.format(Locale.ENGLISH, "%.3f", record.wall)).append('\n');
+        }
+        result.append("# TYPE phpnar_phase_cpu_seconds gauge\n");
+        result.append("# UNIT phpnar_phase_cpu_seconds seconds\n");
+        result.append("# HELP phpnar_phase_cpu_seconds Cpu time (user and system) of a build phase.\n");
+        for (final Record record : this.records) {
+            if (record.cpu >= 0) {
+                result.append("phpnar_phase_cpu_seconds").append(this.labels(record))
+                    .append(' ').append(String.format(Locale.ENGLISH, "%.3f", record.cpu)).append('\n');
+            }
+        }
+        result.append("# TYPE phpnar_processes_spawned counter\n");
+        result.append("# HELP phpnar_processes_spawned Processes spawned by the plugin.\n");
+        result.append("phpnar_processes_spawned_total{goal=\"").append(escape(this.goal)).append("\"} ")
+            .append(this.processes.get()).append('\n');
+        result.append("# EOF\n");
+        return result.toString();
+    }
+
+    private String labels(Record record) {
+        return "{goal=\"" + escape(this.goal) + "\",aol=\"" + escape(record.aol) + "\",phase=\"" + escape(record.phase) + "\"}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * A running phase
+     */
+    final class Phase {
+
+        private final String aol;
+
+        private final String phase;
+
+        private final long wallStart;
+
+        private final long cpuStart;
+
+        private Phase(String aol, String phase) {
+            this.aol = aol;
+            this.phase = phase;
+            this.wallStart = System.nanoTime();
+            this.cpuStart = cpuTime();
+        }
+
+        /**
+         * Stops the measurement and records the phase.
+         */
+        public void stop() {
+            final long cpuEnd = cpuTime();
+            record(this.aol, this.phase,
+                (System.nanoTime() - this.wallStart) / 1e9,
+                this.cpuStart < 0 || cpuEnd < 0 ? -1 : (cpuEnd - this.cpuStart) / 1e9);
+        }
+
+        private long cpuTime() {
+            final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            }
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : -1;
+        }
+
+    }
+
+    /**
+     * A recorded phase
+     */
+    private static final class Record {
+
+        final String aol;
+
+        final String phase;
+
+        final double wall;
+
+        final double cpu;
+
+        Record(String aol, String phase, double wall, double cpu) {
+            this.aol = aol;
+            this.phase = phase;
+            this.wall = wall;
+            this.cpu = cpu;
+        }
+
+    }
+
+}
@@ -17,13 +17,31 @@ package org.phpmaven.phpnar;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
-import org.apache.maven.plugin.nar.NarProperties;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
@@ -34,63 +52,512 @@ import org.phpmaven.core.ExecutionUtils;
  * A goal to compile the php extension
  * 
  * @goal compile
+ * @threadSafe
  * @author mepeisen
  */
 public class CompileMojo extends AbstractNarMojo {
     
+    /**
+     * The folder (relative to the aol target folder) holding the stamps of the *ix build stages
+     */
+    private static final String STAMPS = ".phpmaven-stamps";
+    
+    /**
+     * The file written to the pgo profile folder after a successful training
+     */
+    private static final String PGO_STAMP = ".phpmaven-trained";
+    
+    /**
+     * The time (ms) after which a remembered host triple is detected again
+     */
+    private static final long HOST_TRIPLE_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    
     /**
      * The extensions that should be activated or deactivated
      * @parameter
      */
     private List<Extension> extensions = new ArrayList<Extension>();
 
+    /**
+     * True to build all aol items at the same time instead of one after another
+     * @parameter expression="${parallelAolBuild}"
+     */
+    private boolean parallelAolBuild = false;
+    
+    /**
+     * True to let the concurrent make processes of a parallel aol build share one GNU make jobserver; without a
+     * shared jobserver the jobs are split evenly between the aol builds
+     * @parameter expression="${sharedJobServer}"
+     */
+    private boolean sharedJobServer = true;
+    
+    /**
+     * The number of parallel make jobs; 0 means: auto-detect (respecting cpu quotas, memory and load average).
+     * Can be overwritten per aol item.
+     * @parameter expression="${makeJobs}"
+     */
+    private int jobs = 0;
+    
+    /**
+     * The memory (in MB) a single make job is expected to need; used to auto-detect the make jobs
+     * @parameter expression="${makeJobMemory}"
+     */
+    private int jobMemory = 512;
+    
+    /**
+     * The detected (or configured) number of make jobs
+     */
+    private int effectiveJobs;
+    
+    /**
+     * True to restore unchanged builds from the local build cache instead of running configure/make (*ix builds only)
+     * @parameter expression="${buildCache}"
+     */
+    private boolean buildCache = false;
+    
+    /**
+     * The directory of the local build cache
+     * @parameter expression="${buildCacheDirectory}" default-value="${user.home}/.phpnar/build-cache"
+     */
+    private File buildCacheDirectory;
+    
+    /**
+     * The maximum size of the local build cache (in MB); least recently used entries are evicted
+     * @parameter expression="${buildCacheSize}"
+     */
+    private long buildCacheSize = 4096;
+    
+    /**
+     * The build cache (null if disabled)
+     */
+    private BuildCache cache;
+    
+    /**
+     * The process groups of the running *ix build scripts
+     */
+    private final Set<ProcessGroup> runningGroups = Collections.synchronizedSet(new HashSet<ProcessGroup>());
+    
+    /**
+     * True if the parallel builds were cancelled; no further build scripts are started
+     */
+    private volatile boolean cancelled;
+    
+    /**
+     * Guards the source hash
+     */
+    private final Object sourceHashLock = new Object();
+    
+    /**
+     * The hash of the php sources (null if not calculated yet)
+     */
+    private String sourceHash;
+    
+    /**
+     * The compiler cache wrapping CC and CXX of *ix builds: "none", "ccache", "sccache" or "auto" (ccache or
+     * sccache if found on the path). An explicitly configured tool that is not found on the path fails the build.
+     * @parameter expression="${compilerCache}"
+     */
+    private String compilerCache = "none";
+    
+    /**
+     * The compiler cache directory; every aol uses its own sub directory
+     * @parameter expression="${compilerCacheDirectory}" default-value="${user.home}/.phpnar/compiler-cache"
+     */
+    private File compilerCacheDirectory;
+    
+    /**
+     * The maximum size of the compiler cache per aol (f.e. "5G")
+     * @parameter expression="${compilerCacheSize}"
+     */
+    private String compilerCacheSize = "5G";
+    
+    /**
+     * The resolved compiler cache (null if not used)
+     */
+    private CompilerCache compilerCacheTool;
+    
+    /**
+     * True to keep the autoconf results (configure --cache-file) of every aol between builds (*ix builds only).
+     * The cache is dropped as soon as the configure line, ArchFlags, HostOs or the compiler versions change.
+     * @parameter expression="${configureCache}"
+     */
+    private boolean configureCache = false;
+    
+    /**
+     * The directory of the autoconf caches; every project and aol uses its own sub directory
+     * @parameter expression="${configureCacheDirectory}" default-value="${user.home}/.phpnar/configure-cache"
+     */
+    private File configureCacheDirectory;
+    
+    /**
+     * The file prefix remembering the host triple (output of config.guess); the host name, os.arch and the
+     * compiler are appended to the file name and the triple is detected again after 30 days. Empty to run
+     * config.guess on every build
+     * @parameter expression="${hostTripleFile}" default-value="${user.home}/.phpnar/host-triple"
+     */
+    private File hostTripleFile;
+    
+    /**
+     * The host triples detected during this build by host triple file name
+     */
+    private final Map<String, String> hostTriples = new HashMap<String, String>();
+    
+    /**
+     * True to skip "buildconf --force" if configure is newer than all of its inputs
+     * @parameter expression="${skipUpToDateBuildconf}"
+     */
+    private boolean skipUpToDateBuildconf = true;
+    
+    /**
+     * True to write the output of the build scripts to target/&lt;aol&gt;/build.log instead of the console; the console
+     * only shows the build phases and the last lines of the output if a build fails
+     * @parameter expression="${buildLog}"
+     */
+    private boolean buildLog = false;
+    
+    /**
+     * The number of output lines printed to the console if a build fails (see buildLog)
+     * @parameter expression="${buildLogTail}"
+     */
+    private int buildLogTail = 200;
+    
+    /**
+     * True for profile guided optimization (*ix builds only): php is built with profile generation first, the
+     * training workload is run and php is rebuilt with the collected profile
+     * @parameter expression="${pgo}"
+     */
+    private boolean pgo = false;
+    
+    /**
+     * The folder holding the pgo profiles; the profile of every aol is kept in a sub folder and reused by later builds
+     * @parameter expression="${pgoDirectory}" default-value="${user.home}/.phpnar/pgo/${project.artifactId}-${project.version}"
+     */
+    private File pgoDirectory;
+    
+    /**
+     * True to run the training workload even if a profile already exists
+     * @parameter expression="${pgoRetrain}"
+     */
+    private boolean pgoRetrain = false;
+    
+    /**
+     * The php scripts of the training workload (relative to the php sources)
+     * @parameter
+     */
+    private List<String> pgoTrainingScripts = new ArrayList<String>(Arrays.asList("Zend/bench.php", "Zend/micro_bench.php"));
+    
+    /**
+     * The run-tests.php test folders of the training workload (relative to the php sources, f.e. Zend/tests)
+     * @parameter
+     */
+    private List<String> pgoTrainingTests = new ArrayList<String>();
+    
+    /**
+     * The phase timings
+     */
+    private BuildTimings timings = new BuildTimings("compile");
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         super.execute();
         
+        try {
+            this.buildAll();
+        } finally {
+            this.timings.report(getLog(), new File(this.project.getBuild().getDirectory()));
+        }
+    }
+    
+    /**
+     * Builds all aol items
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void buildAll() throws MojoExecutionException, MojoFailureException {
         for (AolItem item : this.aolItems) {
             item.check(getLog(), this.project);
+        }
+        
+        if (this.buildCache) {
+            this.cache = new BuildCache(this.buildCacheDirectory, this.buildCacheSize * 1024 * 1024);
+        }
+        if (!ExecutionUtils.isWindows()) {
+            try {
+                this.compilerCacheTool = CompilerCache.resolve(getLog(), this.compilerCache, this.compilerCacheDirectory, this.compilerCacheSize);
+            } catch (IllegalArgumentException ex) {
+                throw new MojoExecutionException(ex.getMessage(), ex);
+            } catch (IllegalStateException ex) {
+                throw new MojoExecutionException(ex.getMessage(), ex);
+            }
+        }
+        this.effectiveJobs = this.jobs > 0 ? this.jobs : BuildJobs.detect(getLog(), this.jobMemory);
+        
+        if (this.parallelAolBuild && this.aolItems.size() > 1) {
+            this.buildParallel();
+        } else {
+            for (AolItem item : this.aolItems) {
+                this.build(item, this.buildLog ? new PrefixedLog(getLog(), item.toString()) : getLog(), null);
+            }
+        }
+    }
+    
+    /**
+     * Builds all aol items concurrently; the first failure cancels the remaining builds.
+     * @throws MojoFailureException thrown if at least one build failed
+     */
+    private void buildParallel() throws MojoFailureException {
+        MakeJobServer jobServer = null;
+        if (this.sharedJobServer && !ExecutionUtils.isWindows()) {
+            try {
+                jobServer = MakeJobServer.start(
+                    getLog(),
+                    new File(this.project.getBuild().getDirectory(), "phpmaven.jobserver"),
+                    this.effectiveJobs,
+                    this.aolItems.size(),
+                    this.timings);
+            } catch (IOException ex) {
+                throw new MojoFailureException("Error starting the make jobserver", ex);
+            }
+        }
+        if (jobServer == null) {
+            getLog().info("No shared make jobserver; running each aol build with " +
+                MakeJobServer.getJobsPerBuild(this.effectiveJobs, this.aolItems.size()) + " jobs");
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(this.aolItems.size());
+        boolean stopped = true;
+        try {
+            final CompletionService<AolItem> completion = new ExecutorCompletionService<AolItem>(executor);
+            for (final AolItem item : this.aolItems) {
+                final MakeJobServer server = jobServer;
+                completion.submit(new Callable<AolItem>() {
+                    @Override
+                    public AolItem call() throws Exception {
+                        build(item, new PrefixedLog(getLog(), item.toString()), server);
+                        return item;
+                    }
+                });
+            }
+            
+            for (int i = 0; i < this.aolItems.size(); i++) {
+                try {
+                    getLog().info("Finished build for " + completion.take().get());
+                } catch (ExecutionException ex) {
+                    getLog().error("Aol build failed; cancelling the remaining builds");
+                    stopped = this.cancel(executor);
+                    if (ex.getCause() instanceof MojoFailureException) {
+                        throw (MojoFailureException) ex.getCause();
+                    }
+                    throw new MojoFailureException("Error during compile", ex.getCause());
+                } catch (InterruptedException ex) {
+                    stopped = this.cancel(executor);
+                    Thread.currentThread().interrupt();
+                    throw new MojoFailureException("Compile interrupted", ex);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (jobServer != null) {
+                // the makes of builds that are still running would lose their jobserver
+                if (stopped) {
+                    jobServer.close();
+                } else {
+                    getLog().warn("Not removing the jobserver pipe; some aol builds are still running");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the make jobs of an aol build without a shared jobserver; parallel aol builds split the jobs.
+     * @param item the aol item
+     * @return jobs
+     */
+    private int getJobs(AolItem item) {
+        if (item.getJobs() != null) {
+            return item.getJobs();
+        }
+        if (this.parallelAolBuild && this.aolItems.size() > 1) {
+            return MakeJobServer.getJobsPerBuild(this.effectiveJobs, this.aolItems.size());
+        }
+        return this.effectiveJobs;
+    }
+    
+    /**
+     * Cancels the running builds and waits for them to terminate; the process groups of the build scripts are
+     * killed, so make and the compilers stop as well.
+     * @param executor the executor
+     * @return true if all builds terminated
+     */
+    private boolean cancel(ExecutorService executor) {
+        this.cancelled = true;
+        final List<ProcessGroup> groups;
+        synchronized (this.runningGroups) {
+            groups = new ArrayList<ProcessGroup>(this.runningGroups);
+        }
+        for (final ProcessGroup group : groups) {
+            group.kill();
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                getLog().warn("Some aol builds did not terminate after being cancelled");
+                return false;
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Builds a single aol item.
+     * @param item the aol item
+     * @param log the logger to be used for this build
+     * @param jobServer the shared jobserver or null
+     * @throws MojoFailureException thrown on build errors
+     */
+    private void build(AolItem item, Log log, MakeJobServer jobServer) throws MojoFailureException {
+        File targetFolder = new File(this.project.getBuild().getDirectory() + "/" + item.getAol());
+        
+        log.info("************");
+        log.info("Starting build for " + item);
+        log.info("");
+        
+        if ("Windows".equalsIgnoreCase(item.getEffectiveOs())) {
+            log.debug("windows build");
+            if (!this.extensionProfiles.isEmpty()) {
+                log.warn("Extension profiles are not supported for windows builds; ignoring them");
+            }
+            if (this.pgo) {
+                log.warn("Profile guided optimization is not supported for windows builds; ignoring it");
+            }
+            if (this.getOptimization(item) != null) {
+                log.warn("Optimization profiles are not supported for windows builds; ignoring " + this.getOptimization(item));
+            }
             
-            File targetFolder = new File(this.project.getBuild().getDirectory() + "/" + item.getAol());
+            // windows build
+            final File buildTargetDir = new File(targetFolder, "phpdev/vc9/" + item.getArch() + "/php-" + this.project.getVersion());
             
-            getLog().info("************");
-            getLog().info("Starting build for " + item);
-            getLog().info("");
+            final File buildScript = this.generateWindowsBuildScript(item, targetFolder, buildTargetDir);
+            final long start = System.nanoTime();
+            try {
+                this.runBuildScript(item, log, "cmd /E:ON /V:ON /c \"" + buildScript.getAbsolutePath() + "\"", targetFolder);
+            } finally {
+                this.timings.record(item.getAol().getKey(), "build", (System.nanoTime() - start) / 1e9, -1);
+            }
+        } else {
+            log.debug("*ix build (configure/make)");
             
-            if ("Windows".equalsIgnoreCase(item.getEffectiveOs())) {
-                getLog().debug("windows build");
-                
-                // windows build
-                final File buildTargetDir = new File(targetFolder, "phpdev/vc9/" + item.getArch() + "/php-" + this.project.getVersion());
-                
-                final File buildScript = this.generateWindowsBuildScript(item, targetFolder, buildTargetDir);
+            final File installFolder = new File(targetFolder, "phpmaven.install");
+            final String configureLine = this.createIxConfigureLine(item, targetFolder, installFolder, log);
+            final boolean pgoTraining = this.pgo && this.needsPgoTraining(item, log);
+
+            String fingerprint = null;
+            // a build with a new pgo profile can never be restored from the cache
+            if (this.cache != null && !pgoTraining) {
                 try {
-                    executeCommand(this.getLog(), "cmd /E:ON /V:ON /c \"" + buildScript.getAbsolutePath() + "\"", targetFolder);
-                } catch (CommandLineException ex) {
-                    throw new MojoFailureException("Error during compile", ex);
+                    final BuildTimings.Phase phase = this.timings.start(item.getAol().getKey(), "cache-restore");
+                    fingerprint = this.createCacheFingerprint(item, configureLine);
+                    final boolean hit = this.cache.restore(log, fingerprint, installFolder);
+                    phase.stop();
+                    if (hit) {
+                        return;
+                    }
+                } catch (IOException ex) {
+                    throw new MojoFailureException("Error reading the build cache", ex);
+                }
+            }
+            
+            File configureCacheFile = null;
+            if (this.configureCache) {
+                configureCacheFile = this.resolveConfigureCache(item, configureLine, log);
+            }
+            
+            final File buildScript = this.generateIxBuildScript(item, targetFolder, installFolder, configureLine, configureCacheFile, pgoTraining, log, jobServer);
+
+            final String command = "bash \"" + buildScript.getAbsolutePath() + "\"";
+            if (ProcessGroup.isSupported()) {
+                final ProcessGroup group = new ProcessGroup(log, targetFolder);
+                group.start();
+                this.runningGroups.add(group);
+                try {
+                    if (this.cancelled) {
+                        throw new MojoFailureException("Build of " + item + " cancelled");
+                    }
+                    this.runBuildScript(item, log, group.wrap(command), targetFolder);
+                } finally {
+                    this.runningGroups.remove(group);
+                    group.stop();
                 }
             } else {
-                getLog().debug("*ix build (configure/make)");
-                
-                final File buildScript = this.generateIxBuildScript(item, targetFolder);
-                
+                this.runBuildScript(item, log, command, targetFolder);
+            }
+
+            if (this.compilerCacheTool != null) {
+                this.compilerCacheTool.logStats(log, item, this.timings);
+            }
+
+            if (this.cache != null) {
                 try {
-                    executeCommand(this.getLog(), "bash \"" + buildScript.getAbsolutePath() + "\"", targetFolder);
-                } catch (CommandLineException ex) {
-                    throw new MojoFailureException("Error during compile", ex);
+                    final BuildTimings.Phase phase = this.timings.start(item.getAol().getKey(), "cache-store");
+                    if (fingerprint == null) {
+                        fingerprint = this.createCacheFingerprint(item, configureLine);
+                    }
+                    this.cache.store(log, fingerprint, installFolder);
+                    phase.stop();
+                } catch (IOException ex) {
+                    log.warn("Unable to store " + installFolder + " in the build cache", ex);
                 }
             }
         }
     }
     
+    /**
+     * Runs a build script; the output is written to target/&lt;aol&gt;/build.log if the build log is enabled.
+     * @param item the aol item
+     * @param log the logger
+     * @param command command line
+     * @param targetFolder the target folder of the aol item
+     * @throws MojoFailureException thrown if the build script fails
+     */
+    private void runBuildScript(AolItem item, Log log, String command, File targetFolder) throws MojoFailureException {
+        BuildLog output = null;
+        if (this.buildLog) {
+            final File logFile = new File(targetFolder, "build.log");
+            try {
+                output = new BuildLog(log, logFile, this.buildLogTail);
+            } catch (IOException ex) {
+                throw new MojoFailureException("Error creating the build log " + logFile, ex);
+            }
+            log.info("Writing the build output to " + logFile);
+        }
+        try {
+            executeCommand(log, command, targetFolder, this.timings, item.getAol().getKey(), output);
+        } catch (CommandLineException ex) {
+            if (output != null) {
+                output.printTail();
+            }
+            throw new MojoFailureException("Error during compile of " + item, ex);
+        } finally {
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+    
     /**
      * Executes a command.
      * @param log the logger
      * @param command command line
      * @param workDir working directory
+     * @param timings the timings counting the process and receiving the phase markers of build scripts
+     * @param aol the aol key used to record the phase markers
+     * @param output the build log receiving the output or null to print the output to the console
      * @throws CommandLineException throw on execution errors.
      */
-    private static void executeCommand(final Log log, final String command, final File workDir) throws CommandLineException {
+    private static void executeCommand(final Log log, final String command, final File workDir, final BuildTimings timings, final String aol, final BuildLog output) throws CommandLineException {
         final Commandline cli = new Commandline(command);
         if (log != null) {
             log.debug("Executing " + command);
@@ -105,15 +572,29 @@ public class CompileMojo extends AbstractNarMojo {
         final StreamConsumer systemOut = new StreamConsumer() {
                 @Override
                 public void consumeLine(String line) {
-                    log.info(line);
+                    if (output != null) {
+                        output.line(line);
+                    } else {
+                        log.info(line);
+                    }
                 }
             };
         final StreamConsumer systemErr = new StreamConsumer() {
                 @Override
                 public void consumeLine(String line) {
-                    log.warn(line);
+                    final String progress = timings.consumeMarker(aol, line);
+                    if (progress != null && output != null) {
+                        output.progress(progress);
+                    } else if (progress != null) {
+                        log.info(progress);
+                    } else if (output != null) {
+                        output.line(line);
+                    } else {
+                        log.warn(line);
+                    }
                 }
             };
+        timings.countProcesses(1);
         try {
             final int result = CommandLineUtils.executeCommandLine(
                 cli,
@@ -133,33 +614,63 @@ public class CompileMojo extends AbstractNarMojo {
         }
     }
 
-    private File generateIxBuildScript(AolItem item, File targetFolder) throws MojoFailureException {
-        final File buildScript = new File(targetFolder, "phpmaven.build.sh");
-        if (buildScript.exists()) {
-            buildScript.delete();
-        }
-        
-        final File installFolder = new File(targetFolder, "phpmaven.install");
-
-        String buildOs = null;
-
+    /**
+     * Prepares the sources and creates the configure line for *ix builds
+     * @param item the aol item
+     * @param targetFolder the target folder containing the sources
+     * @param installFolder the install folder
+     * @param log the logger
+     * @return configure line
+     * @throws MojoFailureException
+     */
+    private String createIxConfigureLine(AolItem item, File targetFolder, File installFolder, Log log) throws MojoFailureException {
+        final BuildTimings.Phase phase = this.timings.start(item.getAol().getKey(), "permissions");
         try {
-            ExecutionUtils.executeCommand(getLog(), "chmod +x " + new File(targetFolder, "config.guess").getAbsolutePath().replace("\\", "\\\\").replace(" ", "\\ "));
-            ExecutionUtils.executeCommand(getLog(), "chmod +x " + new File(targetFolder, "buildconf").getAbsolutePath().replace("\\", "\\\\").replace(" ", "\\ "));
+            FileTreeUtils.setExecutable(new File(targetFolder, "config.guess").toPath());
+            FileTreeUtils.setExecutable(new File(targetFolder, "buildconf").toPath());
             for (final File file : new File(targetFolder, "build").listFiles()) {
                 if (file.isFile()) {
-                    ExecutionUtils.executeCommand(getLog(), "chmod +x " + file.getAbsolutePath().replace("\\", "\\\\").replace(" ", "\\ "));
+                    FileTreeUtils.setExecutable(file.toPath());
                 }
             }
-            buildOs = ExecutionUtils.executeCommand(getLog(), "\"" + new File(targetFolder, "config.guess").getAbsolutePath() + "\"", targetFolder).trim();
-            ExecutionUtils.executeCommand(getLog(), "\"" + new File(targetFolder, "buildconf").getAbsolutePath() + "\" --force", targetFolder);
-        }
-        catch (CommandLineException ex) {
-            throw new MojoFailureException("Failed to find the host os (config.guess)", ex);
+        } catch (IOException ex) {
+            throw new MojoFailureException("Error while setting the permissions of the build files", ex);
         }
-        
+        phase.stop();
+
+        final String buildOs = this.detectHostTriple(item, targetFolder, log);
+
+        return this.createIxConfigureCommand(item, installFolder, buildOs, this.pgo ? this.getPgoUseFlags(item) : "");
+    }
+
+    /**
+     * Creates the configure line for *ix builds
+     * @param item the aol item
+     * @param installFolder the install folder
+     * @param buildOs the host triple of this machine
+     * @param extraFlags the flags appended to CFLAGS, CXXFLAGS and LDFLAGS
+     * @return configure line
+     * @throws MojoFailureException
+     */
+    private String createIxConfigureCommand(AolItem item, File installFolder, String buildOs, String extraFlags) throws MojoFailureException {
+        // TODO macosx cross compile
+        return "./configure " +
+        		"--prefix=\"" + installFolder.getAbsolutePath() + "\" " +
+                this.createConfigureArgs(item, "--enable-cli --enable-embed=shared") + " " +
+                this.createIxPlatformArgs(item, buildOs, extraFlags);
+    }
+
+    /**
+     * Creates the configure arguments selecting the platform and the compiler flags for *ix builds
+     * @param item the aol item
+     * @param buildOs the host triple of this machine
+     * @param extraFlags the flags appended to CFLAGS, CXXFLAGS and LDFLAGS
+     * @return configure arguments
+     * @throws MojoFailureException
+     */
+    private String createIxPlatformArgs(AolItem item, String buildOs, String extraFlags) throws MojoFailureException {
         final String propertyKey = item.getAol().getKey();
-        final NarProperties props = NarProperties.getInstance(this.project);
+        final AolProperties props = AolProperties.getInstance(this.project);
         final String hostOs = props.getProperty(propertyKey + ".HostOs");
         final String archFlags = props.getProperty(propertyKey + ".ArchFlags");
         String extraLdFlags = "";
@@ -169,22 +680,510 @@ public class CompileMojo extends AbstractNarMojo {
             extraLdFlags = " -L/usr/lib64";
         }
         
-        final StringBuffer content = new StringBuffer();
-        // TODO macosx cross compile
-        content.append("./configure " +
-        		"--prefix=\"" + installFolder.getAbsolutePath() + "\" " +
-                this.createConfigureArgs(item, "--enable-cli --enable-embed=shared") + " " +
-        		"--build=" + buildOs + " " +
+        final String optimizationCflags = this.getOptimizationFlags(item, "cflags");
+        final String optimizationLdflags = this.getOptimizationFlags(item, "ldflags");
+        
+        return "--build=" + buildOs + " " +
         		"--host=" + hostOs + " " +
-        		"CFLAGS='" + archFlags + " " + props.getProperty(propertyKey + ".c.options").replace("-Wall", "") + "' " +
-        		"CXXFLAGS='" + archFlags + " " + props.getProperty(propertyKey + ".cpp.options").replace("-Wall", "") + "' " +
-        		"LDFLAGS='" + archFlags + extraLdFlags + "'\n");
-        content.append("make\n");
-        content.append("make install\n");
+        		"CFLAGS='" + archFlags + " " + props.getProperty(propertyKey + ".c.options").replace("-Wall", "") + optimizationCflags + extraFlags + "' " +
+        		"CXXFLAGS='" + archFlags + " " + props.getProperty(propertyKey + ".cpp.options").replace("-Wall", "") + optimizationCflags + extraFlags + "' " +
+        		"LDFLAGS='" + archFlags + extraLdFlags + optimizationLdflags + extraFlags + "'";
+    }
+    
+    /**
+     * Returns the flags of the optimization profile of an aol item; aol specific keys
+     * (&lt;aol&gt;.optimization.&lt;name&gt;.&lt;kind&gt;) win over the generic ones (optimization.&lt;name&gt;.&lt;kind&gt;)
+     * @param item the aol item
+     * @param kind "cflags" or "ldflags"
+     * @return flags (with leading blank) or an empty string if the item does not use an optimization profile
+     * @throws MojoFailureException thrown if the profile is not defined
+     */
+    private String getOptimizationFlags(AolItem item, String kind) throws MojoFailureException {
+        final String optimization = this.getOptimization(item);
+        if (optimization == null) {
+            return "";
+        }
+        final AolProperties props = AolProperties.getInstance(this.project);
+        final String key = "optimization." + optimization + ".";
+        final String propertyKey = item.getAol().getKey();
+        if (props.getProperty(propertyKey + "." + key + "cflags") == null && props.getProperty(key + "cflags") == null) {
+            throw new MojoFailureException("Optimization profile " + optimization + " of " + item + " is not defined (" + key + "cflags)");
+        }
+        String flags = props.getProperty(propertyKey + "." + key + kind);
+        if (flags == null) {
+            flags = props.getProperty(key + kind);
+        }
+        return flags == null || flags.trim().length() == 0 ? "" : " " + flags.trim();
+    }
+
+    /**
+     * Returns the pgo profile folder of an aol item
+     * @param item the aol item
+     * @return profile folder
+     */
+    private File getPgoProfileFolder(AolItem item) {
+        return new File(this.pgoDirectory, item.getAol().getKey());
+    }
+
+    /**
+     * Returns the flags of the instrumented pgo build
+     * @param item the aol item
+     * @return flags (with leading blank)
+     */
+    private String getPgoGenerateFlags(AolItem item) {
+        return " -fprofile-generate=" + this.getPgoProfileFolder(item).getAbsolutePath();
+    }
+
+    /**
+     * Returns the flags of the optimized pgo build; a profile that does not match the sources any more only
+     * causes warnings (use pgoRetrain to create a new profile)
+     * @param item the aol item
+     * @return flags (with leading blank)
+     */
+    private String getPgoUseFlags(AolItem item) {
+        return " -fprofile-use=" + this.getPgoProfileFolder(item).getAbsolutePath() + " -fprofile-correction -Wno-error=coverage-mismatch";
+    }
+
+    /**
+     * Checks if the pgo training workload has to run; this is the case if there is no profile yet or pgoRetrain is set
+     * @param item the aol item
+     * @param log the logger
+     * @return true if the training has to run
+     */
+    private boolean needsPgoTraining(AolItem item, Log log) {
+        final File profileFolder = this.getPgoProfileFolder(item);
+        if (this.pgoRetrain) {
+            log.info("Running the pgo training: retraining requested");
+            return true;
+        }
+        if (!new File(profileFolder, PGO_STAMP).isFile()) {
+            log.info("Running the pgo training: there is no profile in " + profileFolder);
+            return true;
+        }
+        log.info("Using the pgo profile from " + profileFolder);
+        return false;
+    }
+
+    /**
+     * Appends the stage building php with profile generation and running the training workload. The objects
+     * are removed afterwards so that the following configure and make stages rebuild php with the new profile.
+     * @param content the script content
+     * @param item the aol item
+     * @param targetFolder the target folder containing the sources
+     * @param installFolder the install folder
+     * @param make the make command
+     * @param log the logger
+     * @throws MojoFailureException
+     */
+    private void appendPgoTrainingStage(StringBuffer content, AolItem item, File targetFolder, File installFolder, String make, Log log) throws MojoFailureException {
+        if (this.pgoTrainingScripts.isEmpty() && this.pgoTrainingTests.isEmpty()) {
+            throw new MojoFailureException("pgo needs a training workload (pgoTrainingScripts or pgoTrainingTests)");
+        }
+        final String profileFolder = this.getPgoProfileFolder(item).getAbsolutePath();
+        final String configureCommand = this.createCompilerVariables(item) +
+            this.createIxConfigureCommand(item, installFolder, this.detectHostTriple(item, targetFolder, log), this.getPgoGenerateFlags(item));
+
+        content.append("rm -f " + STAMPS + "/configure " + STAMPS + "/make " + STAMPS + "/install\n");
+        content.append("rm -rf \"" + profileFolder + "\"\n");
+        content.append("mkdir -p \"" + profileFolder + "\"\n");
+        content.append(BuildTimings.scriptTime("pgo-configure") + configureCommand + "\n");
+        content.append("make clean > /dev/null\n");
+        content.append(BuildTimings.scriptTime("pgo-make") + make + "\n");
+        content.append(BuildTimings.scriptTime("pgo-training") + "(\n");
+        for (final String script : this.pgoTrainingScripts) {
+            if (!new File(targetFolder, script).isFile()) {
+                throw new MojoFailureException("pgo training script " + script + " not found in the php sources");
+            }
+            content.append("  sapi/cli/php " + script + " > /dev/null\n");
+        }
+        if (!this.pgoTrainingTests.isEmpty()) {
+            content.append("  NO_INTERACTION=1 TEST_PHP_EXECUTABLE=sapi/cli/php sapi/cli/php run-tests.php -q");
+            for (final String tests : this.pgoTrainingTests) {
+                content.append(" " + tests);
+            }
+            // failing tests still train the profile
+            content.append(" > /dev/null || true\n");
+        }
+        content.append(")\n");
+        content.append("make clean > /dev/null\n");
+        content.append("date +%s%N > \"" + profileFolder + "/" + PGO_STAMP + "\"\n");
+    }
+    
+    /**
+     * Returns the host triple of this machine; config.guess only runs if the triple is not known yet
+     * @param item the aol item
+     * @param targetFolder the target folder containing the sources
+     * @param log the logger
+     * @return host triple
+     * @throws MojoFailureException
+     */
+    private synchronized String detectHostTriple(AolItem item, File targetFolder, Log log) throws MojoFailureException {
+        final boolean memoize = this.hostTripleFile != null && this.hostTripleFile.getPath().length() > 0;
+        final File file = memoize ? getHostTripleFile(this.hostTripleFile, getHostName(), System.getProperty("os.arch"), this.getCompiler(item, "c")) : null;
+        final String key = memoize ? file.getPath() : "";
+        String triple = this.hostTriples.get(key);
+        if (triple != null) {
+            return triple;
+        }
+        if (memoize && file.isFile() && System.currentTimeMillis() - file.lastModified() < HOST_TRIPLE_MAX_AGE) {
+            try {
+                triple = FileUtils.fileRead(file, "UTF-8").trim();
+                if (triple.length() > 0) {
+                    log.info("Using host triple " + triple + " from " + file + " (config.guess skipped)");
+                    this.hostTriples.put(key, triple);
+                    return triple;
+                }
+            } catch (IOException ex) {
+                log.warn("Unable to read " + file, ex);
+            }
+        }
+        
+        try {
+            this.timings.countProcesses(1);
+            final long start = System.nanoTime();
+            triple = ExecutionUtils.executeCommand(log, "\"" + new File(targetFolder, "config.guess").getAbsolutePath() + "\"", targetFolder).trim();
+            this.timings.record(item.getAol().getKey(), "config.guess", (System.nanoTime() - start) / 1e9, -1);
+        }
+        catch (CommandLineException ex) {
+            throw new MojoFailureException("Failed to find the host os (config.guess)", ex);
+        }
+        log.info("Detected host triple " + triple + " (config.guess)");
+        this.hostTriples.put(key, triple);
+        
+        if (memoize) {
+            try {
+                // write to a temporary file first so that concurrent builds never read partial files
+                file.getParentFile().mkdirs();
+                final File temp = new File(file.getPath() + ".tmp-" + System.nanoTime());
+                FileUtils.fileWrite(temp.getAbsolutePath(), "UTF-8", triple + "\n");
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                log.warn("Unable to write " + file, ex);
+            }
+        }
+        return triple;
+    }
+    
+    /**
+     * Returns the host triple file of a machine and compiler
+     * @param prefix the configured host triple file
+     * @param hostName the host name
+     * @param arch the os.arch
+     * @param compiler the c compiler
+     * @return file
+     */
+    static File getHostTripleFile(File prefix, String hostName, String arch, String compiler) {
+        final String suffix = "-" + hostName + "-" + arch + "-" + new File(compiler.trim().split("\\s+")[0]).getName();
+        return new File(prefix.getPath() + suffix.replaceAll("[^A-Za-z0-9._+-]", "_"));
+    }
+    
+    /**
+     * Returns the name of this machine
+     * @return host name ("localhost" if unknown)
+     */
+    private static String getHostName() {
+        final String env = System.getenv("HOSTNAME");
+        if (env != null && env.length() > 0) {
+            return env;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex) {
+            return "localhost";
+        }
+    }
+    
+    /**
+     * Checks if buildconf has to regenerate configure; this is the case if configure or main/php_config.h.in
+     * is missing or older than configure.in, acinclude.m4 or any other m4 file of the sources
+     * @param targetFolder the target folder containing the sources
+     * @param log the logger
+     * @return true if buildconf has to run
+     */
+    private boolean needsBuildconf(File targetFolder, Log log) {
+        if (!this.skipUpToDateBuildconf) {
+            return true;
+        }
+        final File configure = new File(targetFolder, "configure");
+        final File configHeader = new File(targetFolder, "main/php_config.h.in");
+        if (!configure.isFile() || !configHeader.isFile()) {
+            log.info("Running buildconf: configure has not been generated yet");
+            return true;
+        }
+        final long generated = Math.min(configure.lastModified(), configHeader.lastModified());
+        final File newer = findNewerInput(targetFolder, targetFolder, generated);
+        if (newer != null) {
+            log.info("Running buildconf: " + newer + " is newer than configure");
+            return true;
+        }
+        log.info("Skipping buildconf: configure is newer than configure.in, acinclude.m4 and the m4 files");
+        return false;
+    }
+    
+    private static File findNewerInput(File root, File dir, long timestamp) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                final File newer = findNewerInput(root, file, timestamp);
+                if (newer != null) {
+                    return newer;
+                }
+                continue;
+            }
+            final String name = file.getName();
+            // aclocal.m4 is generated by buildconf itself
+            final boolean input = dir.equals(root)
+                ? name.equals("configure.in") || name.equals("configure.ac") || name.equals("acinclude.m4")
+                : name.endsWith(".m4") && !name.equals("aclocal.m4");
+            if (input && file.lastModified() > timestamp) {
+                return file;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Calculates the build cache fingerprint of an aol item
+     * @param item the aol item
+     * @param configureLine the effective configure line
+     * @return fingerprint
+     * @throws MojoFailureException
+     * @throws IOException
+     */
+    private String createCacheFingerprint(AolItem item, String configureLine) throws MojoFailureException, IOException {
+        final String propertyKey = item.getAol().getKey();
+        final AolProperties props = AolProperties.getInstance(this.project);
+        final Map<String, String> properties = new HashMap<String, String>();
+        for (final String key : new String[]{"ArchFlags", "HostOs", "c.options", "cpp.options"}) {
+            properties.put(key, String.valueOf(props.getProperty(propertyKey + "." + key)));
+        }
+        for (final ExtensionProfile profile : this.extensionProfiles) {
+            final StringBuilder args = new StringBuilder();
+            for (final Extension ext : profile.getExtensions()) {
+                args.append(ExtensionProfile.getConfigureArg(ext)).append(' ');
+            }
+            properties.put("profile." + profile.getName(), args.toString());
+        }
+        if (this.pgo) {
+            final File stamp = new File(this.getPgoProfileFolder(item), PGO_STAMP);
+            properties.put("pgo", stamp.isFile() ? FileUtils.fileRead(stamp, "UTF-8").trim() : "");
+        }
+        return BuildCache.fingerprint(this.getSourceHash(), configureLine, properties);
+    }
+    
+    /**
+     * Returns the hash of the php sources; the sources are hashed once per execution and shared by all aols
+     * @return hash
+     * @throws IOException
+     */
+    private String getSourceHash() throws IOException {
+        synchronized (this.sourceHashLock) {
+            if (this.sourceHash == null) {
+                final long start = System.nanoTime();
+                this.sourceHash = BuildCache.hashSources(new File(this.project.getCompileSourceRoots().get(0)));
+                this.timings.record(null, "hash sources", (System.nanoTime() - start) / 1e9, -1);
+            }
+            return this.sourceHash;
+        }
+    }
+
+    /**
+     * Resolves the autoconf cache file of an aol item
+     * @param item the aol item
+     * @param configureLine the effective configure line
+     * @param log the logger
+     * @return cache file or null if the compiler versions could not be detected
+     * @throws MojoFailureException
+     */
+    private File resolveConfigureCache(AolItem item, String configureLine, Log log) throws MojoFailureException {
+        final String propertyKey = item.getAol().getKey();
+        final AolProperties props = AolProperties.getInstance(this.project);
+        final Map<String, String> properties = new HashMap<String, String>();
+        for (final String key : new String[]{"ArchFlags", "HostOs"}) {
+            properties.put(key, String.valueOf(props.getProperty(propertyKey + "." + key)));
+        }
+        for (final String compiler : new String[]{this.getCompiler(item, "c"), this.getCompiler(item, "cpp")}) {
+            this.timings.countProcesses(1);
+            try {
+                properties.put("version:" + compiler, ExecutionUtils.executeCommand(log, compiler + " --version").trim());
+            } catch (CommandLineException ex) {
+                log.warn("Unable to detect the version of " + compiler + "; not using the configure cache", ex);
+                return null;
+            }
+        }
+        final String fingerprint = ConfigureCache.fingerprint(this.createCompilerVariables(item) + configureLine, properties);
+        // projects building other php versions for the same aol (f.e. in parallel builds) must not evict each other
+        final File directory = new File(this.configureCacheDirectory, this.project.getArtifactId() + "-" + this.project.getVersion());
+        return new ConfigureCache(directory).resolve(log, propertyKey, fingerprint);
+    }
+    
+    /**
+     * Returns the compiler of an aol item
+     * @param item the aol item
+     * @param language "c" or "cpp"
+     * @return compiler
+     * @throws MojoFailureException
+     */
+    private String getCompiler(AolItem item, String language) throws MojoFailureException {
+        final String compiler = AolProperties.getInstance(this.project).getProperty(item.getAol().getKey() + "." + language + ".compiler");
+        if (compiler == null) {
+            return "c".equals(language) ? "gcc" : "g++";
+        }
+        return compiler;
+    }
+    
+    /**
+     * Returns the CC and CXX assignments to be placed in front of the configure line
+     * @param item the aol item
+     * @return variables (empty if configure should detect the compilers)
+     * @throws MojoFailureException
+     */
+    private String createCompilerVariables(AolItem item) throws MojoFailureException {
+        if (this.compilerCacheTool == null) {
+            return "";
+        }
+        return "CC='" + this.compilerCacheTool.getLauncher() + " " + this.getCompiler(item, "c") + "' " +
+            "CXX='" + this.compilerCacheTool.getLauncher() + " " + this.getCompiler(item, "cpp") + "' ";
+    }
+
+    /**
+     * Checks if configure has to run; this is the case if the stamp of the last successful configure run is missing,
+     * older than the configure script or was written for another configure command
+     * @param targetFolder the target folder containing the sources
+     * @param stamp the expected stamp
+     * @param log the logger
+     * @return true if configure has to run
+     */
+    private boolean needsConfigure(File targetFolder, String stamp, Log log) {
+        final File stampFile = new File(targetFolder, STAMPS + "/configure");
+        if (!stampFile.isFile() || !new File(targetFolder, "Makefile").isFile()) {
+            log.info("Running configure: the sources have not been configured yet");
+            return true;
+        }
+        if (new File(targetFolder, "configure").lastModified() > stampFile.lastModified()) {
+            log.info("Running configure: the configure script changed");
+            return true;
+        }
+        try {
+            if (!stamp.equals(FileUtils.fileRead(stampFile, "UTF-8").trim())) {
+                log.info("Running configure: the configure command changed");
+                return true;
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to read " + stampFile, ex);
+            return true;
+        }
+        log.info("Skipping configure: the sources are configured with the same command");
+        return false;
+    }
+    
+    /**
+     * Returns the extensions of all extension profiles
+     * @return configure arguments by extension name
+     * @throws MojoFailureException thrown on invalid profiles
+     */
+    private Map<String, String> getProfileExtensions() throws MojoFailureException {
+        final Map<String, String> result = new TreeMap<String, String>();
+        for (final ExtensionProfile profile : this.extensionProfiles) {
+            profile.check();
+            for (final Extension ext : profile.getExtensions()) {
+                final String arg = ExtensionProfile.getConfigureArg(ext);
+                final String other = result.put(ext.getName(), arg);
+                if (other != null && !other.equals(arg)) {
+                    throw new MojoFailureException("Extension " + ext.getName() + " is defined with different options (" + other + ", " + arg + ") in the extension profiles");
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Appends the stages building the extensions of the extension profiles. Every extension is built only once per aol
+     * (with phpize against the core build in target/&lt;aol&gt;/phpmaven.extensions/&lt;name&gt;) and copied to
+     * phpmaven.install/profiles/&lt;profile&gt;/modules of every profile containing it. An extension is rebuilt if the
+     * core was installed again or its sources changed.
+     * @param content the script content
+     * @param item the aol item
+     * @param targetFolder the target folder containing the sources
+     * @param installFolder the install folder
+     * @param make the make command
+     * @param log the logger
+     * @throws MojoFailureException
+     */
+    private void appendProfileStages(StringBuffer content, AolItem item, File targetFolder, File installFolder, String make, Log log) throws MojoFailureException {
+        final Map<String, String> extensionArgs = this.getProfileExtensions();
+        if (extensionArgs.isEmpty()) {
+            return;
+        }
+        final String platformArgs = this.createIxPlatformArgs(item, this.detectHostTriple(item, targetFolder, log), "");
+        final String compilerVariables = this.createCompilerVariables(item);
+        final File extensionsFolder = new File(targetFolder, "phpmaven.extensions");
+        for (final Map.Entry<String, String> entry : extensionArgs.entrySet()) {
+            final String name = entry.getKey();
+            if (!new File(targetFolder, "ext/" + name).isDirectory()) {
+                throw new MojoFailureException("Extension " + name + " of the extension profiles not found in the php sources");
+            }
+            final String stamp = STAMPS + "/ext-" + name;
+            final String extensionFolder = new File(extensionsFolder, name).getAbsolutePath();
+            content.append("if [ " + STAMPS + "/install -nt " + stamp + " ] || [ -n \"$(find ext/" + name + " -newer " + stamp + " -print -quit 2> /dev/null)\" ]; then\n");
+            content.append("  rm -f " + stamp + "\n");
+            content.append("  rm -rf \"" + extensionFolder + "\"\n");
+            content.append("  mkdir -p \"" + extensionsFolder.getAbsolutePath() + "\"\n");
+            content.append("  cp -R ext/" + name + " \"" + extensionFolder + "\"\n");
+            content.append("  " + BuildTimings.scriptTime("ext-" + name) + "(cd \"" + extensionFolder + "\" && " +
+                "\"" + new File(installFolder, "bin/phpize").getAbsolutePath() + "\" && " +
+                compilerVariables + "./configure --with-php-config=\"" + new File(installFolder, "bin/php-config").getAbsolutePath() + "\" " +
+                entry.getValue() + " " + platformArgs + " && " + make + ")\n");
+            content.append("  touch " + stamp + "\n");
+            content.append("fi\n");
+        }
+        for (final ExtensionProfile profile : this.extensionProfiles) {
+            final String modules = new File(installFolder, "profiles/" + profile.getName() + "/modules").getAbsolutePath();
+            content.append("rm -rf \"" + modules + "\"\n");
+            content.append("mkdir -p \"" + modules + "\"\n");
+            for (final Extension ext : profile.getExtensions()) {
+                content.append("cp \"" + new File(extensionsFolder, ext.getName() + "/modules/" + ext.getName() + ".so").getAbsolutePath() + "\" \"" + modules + "/\"\n");
+            }
+        }
+    }
+    
+    /**
+     * Creates the stamp of a configure run
+     * @param configureCommand the configure command
+     * @return stamp
+     */
+    static String createConfigureStamp(String configureCommand) {
+        final MessageDigest digest = BuildCache.newDigest();
+        BuildCache.update(digest, configureCommand);
+        return BuildCache.toHex(digest.digest());
+    }
+
+    /**
+     * Writes the *ix build script (see {@link #createIxBuildScript(AolItem, File, File, String, File, boolean, Log, MakeJobServer)}).
+     * @param item the aol item
+     * @param targetFolder the target folder containing the sources
+     * @param installFolder the install folder
+     * @param configureLine the configure line
+     * @param configureCacheFile the autoconf cache file or null
+     * @param pgoTraining true to build php with profile generation and run the pgo training first
+     * @param log the logger
+     * @param jobServer the shared jobserver or null
+     * @return build script
+     * @throws MojoFailureException
+     */
+    private File generateIxBuildScript(AolItem item, File targetFolder, File installFolder, String configureLine, File configureCacheFile, boolean pgoTraining, Log log, MakeJobServer jobServer) throws MojoFailureException {
+        final File buildScript = new File(targetFolder, "phpmaven.build.sh");
+        if (buildScript.exists()) {
+            buildScript.delete();
+        }
         
+        final String content = this.createIxBuildScript(item, targetFolder, installFolder, configureLine, configureCacheFile, pgoTraining, log, jobServer);
         try {
             final FileOutputStream fos = new FileOutputStream(buildScript);
-            fos.write(content.toString().getBytes());
+            fos.write(content.getBytes());
             fos.flush();
             fos.close();
         } catch (IOException ex) {
@@ -192,14 +1191,110 @@ public class CompileMojo extends AbstractNarMojo {
         }
         
         try {
-            ExecutionUtils.executeCommand(getLog(), "chmod +x " + buildScript.getAbsolutePath().replace("\\", "\\\\").replace(" ", "\\ "));
-        } catch (CommandLineException ex) {
+            FileTreeUtils.setExecutable(buildScript.toPath());
+        } catch (IOException ex) {
             throw new MojoFailureException("Error while chmod build script", ex);
         }
         
         return buildScript;
     }
 
+    /**
+     * Creates the *ix build script; the script consists of the stages buildconf, configure, make and install.
+     * buildconf and configure only run if their inputs changed, make relies on its own dependency tracking and install
+     * only runs if make rebuilt something (or the install folder is missing). Every stage writes a stamp into
+     * target/&lt;aol&gt;/.phpmaven-stamps after it succeeded.
+     * @param item the aol item
+     * @param targetFolder the target folder containing the sources
+     * @param installFolder the install folder
+     * @param configureLine the configure line
+     * @param configureCacheFile the autoconf cache file or null
+     * @param pgoTraining true to build php with profile generation and run the pgo training first
+     * @param log the logger
+     * @param jobServer the shared jobserver or null
+     * @return script content
+     * @throws MojoFailureException
+     */
+    String createIxBuildScript(AolItem item, File targetFolder, File installFolder, String configureLine, File configureCacheFile, boolean pgoTraining, Log log, MakeJobServer jobServer) throws MojoFailureException {
+        final StringBuffer content = new StringBuffer();
+        // stop at the first failing step so that the build failure is reported
+        content.append("set -e\n");
+        if (ProcessGroup.isSupported()) {
+            content.append(ProcessGroup.getScriptPrelude());
+        }
+        if (jobServer != null) {
+            content.append(jobServer.getScriptPrelude());
+        }
+        content.append("mkdir -p " + STAMPS + "\n");
+        
+        // buildconf
+        final boolean buildconf = this.needsBuildconf(targetFolder, log);
+        if (buildconf) {
+            // a failing stage must not leave the stamps of the following stages behind
+            content.append("rm -f " + STAMPS + "/configure " + STAMPS + "/buildconf\n");
+            content.append(BuildTimings.scriptTime("buildconf") + "./buildconf --force\n");
+            content.append("touch " + STAMPS + "/buildconf\n");
+        }
+        if (this.compilerCacheTool != null) {
+            content.append(this.compilerCacheTool.getScriptPrelude(item));
+        }
+        
+        final String make;
+        if (jobServer != null) {
+            // the job count is controlled by the shared jobserver
+            if (item.getJobs() != null) {
+                log.warn("Ignoring jobs setting of " + item + " because of the shared jobserver");
+            }
+            make = "make";
+        } else {
+            make = "make -j" + this.getJobs(item);
+        }
+        
+        // pgo training (removes the stamps of the following stages)
+        if (pgoTraining) {
+            this.appendPgoTrainingStage(content, item, targetFolder, installFolder, make, log);
+        }
+        
+        // configure
+        final String configureCommand = this.createCompilerVariables(item) + configureLine;
+        final String configureStamp = createConfigureStamp(configureCommand);
+        if (buildconf) {
+            log.info("Running configure: configure is regenerated by buildconf");
+        } else if (pgoTraining) {
+            log.info("Running configure: php is rebuilt with the new pgo profile");
+        }
+        if (buildconf || pgoTraining || this.needsConfigure(targetFolder, configureStamp, log)) {
+            content.append("rm -f " + STAMPS + "/configure\n");
+            content.append(BuildTimings.scriptTime("configure") + configureCommand);
+            if (configureCacheFile != null) {
+                content.append(" --cache-file=\"" + configureCacheFile.getAbsolutePath() + "\"");
+            }
+            content.append("\n");
+            content.append("echo " + configureStamp + " > " + STAMPS + "/configure\n");
+        }
+        
+        // make (incremental by itself; the stamp is only renewed if something had to be rebuilt)
+        content.append("if [ ! -f " + STAMPS + "/make ] || ! make -q > /dev/null 2>&1; then\n");
+        content.append("  " + BuildTimings.scriptTime("make") + make + "\n");
+        content.append("  touch " + STAMPS + "/make\n");
+        content.append("else\n");
+        content.append("  echo \"Skipping make: all targets are up to date\"\n");
+        content.append("fi\n");
+        
+        // install
+        content.append("if [ " + STAMPS + "/make -nt " + STAMPS + "/install ] || [ ! -d \"" + installFolder.getAbsolutePath() + "\" ]; then\n");
+        content.append("  rm -f " + STAMPS + "/install\n");
+        content.append("  " + BuildTimings.scriptTime("make-install") + "make install\n");
+        content.append("  touch " + STAMPS + "/install\n");
+        content.append("else\n");
+        content.append("  echo \"Skipping make install: nothing was rebuilt\"\n");
+        content.append("fi\n");
+        
+        this.appendProfileStages(content, item, targetFolder, installFolder, make, log);
+        
+        return content.toString();
+    }
+
     private File generateWindowsBuildScript(AolItem item, File targetFolder, File buildTargetDir) throws MojoFailureException {
         final File buildScript = new File(buildTargetDir, "phpmaven.build.cmd");
         if (buildScript.exists()) {
@@ -243,6 +1338,22 @@ public class CompileMojo extends AbstractNarMojo {
         return buildScript;
     }
 
+    /**
+     * Sets the extensions that should be activated or deactivated
+     * @param extensions extensions
+     */
+    void setExtensions(List<Extension> extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * Sets the folder holding the pgo profiles
+     * @param pgoDirectory pgo directory
+     */
+    void setPgoDirectory(File pgoDirectory) {
+        this.pgoDirectory = pgoDirectory;
+    }
+
     /**
      * Creates the configure line
      * @param item
@@ -250,7 +1361,7 @@ public class CompileMojo extends AbstractNarMojo {
      * @return command line arguments to be used
      * @throws MojoFailureException 
      */
-    private String createConfigureArgs(AolItem item, String defaultValue) throws MojoFailureException {
+    String createConfigureArgs(AolItem item, String defaultValue) throws MojoFailureException {
         String configure = item.getConfigureArgs() != null ? item.getConfigureArgs() : (this.getConfigureArgs() == null ? "" : this.getConfigureArgs());
         if (configure.length() == 0) {
             configure = defaultValue;
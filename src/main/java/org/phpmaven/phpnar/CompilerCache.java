@@ -0,0 +1,192 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * A compiler cache (ccache or sccache) wrapping the compilers of the *ix builds.
+ * <p>
+ * Every aol uses its own cache directory. sccache additionally uses one server per cache directory; its
+ * port is derived from the directory, so concurrent builds of different aols (or of different modules of a
+ * parallel reactor) keep separate servers and statistics without colliding with a server started by the
+ * user on the default port.
+ * </p>
+ */
+final class CompilerCache {
+
+    /**
+     * The first sccache server port (below the usual ephemeral port range)
+     */
+    private static final int SCCACHE_PORT = 10000;
+
+    /**
+     * The number of sccache server ports
+     */
+    private static final int SCCACHE_PORTS = 20000;
+
+    /**
+     * The tool ("ccache" or "sccache")
+     */
+    private final String tool;
+
+    /**
+     * The cache root directory
+     */
+    private final File directory;
+
+    /**
+     * The maximum cache size (f.e. "5G")
+     */
+    private final String maxSize;
+
+    private CompilerCache(String tool, File directory, String maxSize) {
+        this.tool = tool;
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Resolves the compiler cache.
+     * @param log the logger
+     * @param setting the configured tool ("auto", "ccache", "sccache" or "none")
+     * @param directory the cache root directory
+     * @param maxSize the maximum cache size
+     * @return compiler cache or null if no compiler cache is used
+     * @throws IllegalArgumentException thrown if the setting is unknown
+     * @throws IllegalStateException thrown if an explicitly configured tool is not found on PATH
+     */
+    public static CompilerCache resolve(Log log, String setting, File directory, String maxSize) {
+        if (setting == null || "none".equals(setting)) {
+            return null;
+        }
+        if ("auto".equals(setting)) {
+            for (final String tool : new String[]{"ccache", "sccache"}) {
+                final File executable = findOnPath(tool);
+                if (executable != null) {
+                    log.info("compilerCache=auto: wrapping the compilers with " + executable + " (cache " + directory +
+                        "); set compilerCache=none to disable it");
+                    return new CompilerCache(tool, directory, maxSize);
+                }
+            }
+            log.info("compilerCache=auto: neither ccache nor sccache found on PATH; building without compiler cache");
+            return null;
+        }
+        if (!"ccache".equals(setting) && !"sccache".equals(setting)) {
+            throw new IllegalArgumentException("Unknown compiler cache " + setting);
+        }
+        if (findOnPath(setting) == null) {
+            throw new IllegalStateException("Compiler cache " + setting + " not found on PATH " + System.getenv("PATH") +
+                "; install it or set compilerCache=auto or compilerCache=none");
+        }
+        return new CompilerCache(setting, directory, maxSize);
+    }
+
+    /**
+     * Returns the command to be prepended to the compiler
+     * @return launcher
+     */
+    public String getLauncher() {
+        return this.tool;
+    }
+
+    /**
+     * Returns the shell lines that configure the cache for a build script and reset its statistics.
+     * @param item the aol item
+     * @return script lines
+     */
+    public String getScriptPrelude(AolItem item) {
+        final StringBuilder result = new StringBuilder();
+        for (final String[] env : this.getEnvironment(item)) {
+            result.append("export ").append(env[0]).append("=\"").append(env[1]).append("\"\n");
+        }
+        if ("ccache".equals(this.tool)) {
+            result.append("ccache -z > /dev/null\n");
+        } else {
+            result.append("sccache --zero-stats > /dev/null\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Prints the cache statistics of an aol build.
+     * @param log the logger
+     * @param item the aol item
+     * @param timings the timings counting the spawned processes
+     */
+    public void logStats(final Log log, AolItem item, BuildTimings timings) {
+        final Commandline cli = new Commandline();
+        cli.setExecutable(this.tool);
+        cli.createArg().setValue("ccache".equals(this.tool) ? "-s" : "--show-stats");
+        for (final String[] env : this.getEnvironment(item)) {
+            cli.addEnvironment(env[0], env[1]);
+        }
+        final StreamConsumer consumer = new StreamConsumer() {
+            @Override
+            public void consumeLine(String line) {
+                log.info(line);
+            }
+        };
+        log.info(this.tool + " statistics for " + item + ":");
+        timings.countProcesses(1);
+        try {
+            CommandLineUtils.executeCommandLine(cli, consumer, consumer);
+        } catch (CommandLineException ex) {
+            log.warn("Unable to read " + this.tool + " statistics", ex);
+        }
+    }
+
+    private String[][] getEnvironment(AolItem item) {
+        final String dir = new File(this.directory, item.getAol().getKey()).getAbsolutePath();
+        if ("ccache".equals(this.tool)) {
+            return new String[][]{{"CCACHE_DIR", dir}, {"CCACHE_MAXSIZE", this.maxSize}};
+        }
+        return new String[][]{
+            {"SCCACHE_DIR", dir},
+            {"SCCACHE_CACHE_SIZE", this.maxSize},
+            {"SCCACHE_SERVER_PORT", String.valueOf(getServerPort(dir))}
+        };
+    }
+
+    /**
+     * Returns the sccache server port of a cache directory
+     * @param dir the absolute cache directory
+     * @return port
+     */
+    static int getServerPort(String dir) {
+        return SCCACHE_PORT + (dir.hashCode() & Integer.MAX_VALUE) % SCCACHE_PORTS;
+    }
+
+    static File findOnPath(String executable) {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (final String dir : path.split(File.pathSeparator)) {
+            final File file = new File(dir, executable);
+            if (file.canExecute()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Persistent autoconf cache files (configure --cache-file) for the *ix builds.
+ * <p>
+ * Every aol owns a sub directory holding a single cache file named by the fingerprint of the configure
+ * inputs (configure line, compilers and their versions, ArchFlags, HostOs). As soon as the fingerprint
+ * changes the outdated cache files of the aol are deleted and configure starts with an empty cache.
+ * </p>
+ */
+final class ConfigureCache {
+
+    /**
+     * Version of the cache layout; part of every fingerprint
+     */
+    private static final String VERSION = "1";
+
+    /**
+     * The cache directory
+     */
+    private final File directory;
+
+    /**
+     * Constructor
+     * @param directory the cache directory
+     */
+    public ConfigureCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Calculates the fingerprint of the configure inputs.
+     * @param configureLine the effective configure line (including CC and CXX)
+     * @param properties further inputs (f.e. ArchFlags, HostOs and the compiler versions)
+     * @return hex encoded fingerprint
+     */
+    public static String fingerprint(String configureLine, Map<String, String> properties) {
+        final MessageDigest digest = BuildCache.newDigest();
+        BuildCache.update(digest, VERSION);
+        BuildCache.update(digest, configureLine);
+        for (final Map.Entry<String, String> entry : new TreeMap<String, String>(properties).entrySet()) {
+            BuildCache.update(digest, entry.getKey() + "=" + entry.getValue());
+        }
+        return BuildCache.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the cache file of an aol and deletes the cache files of other fingerprints.
+     * @param log the logger
+     * @param aol the aol key
+     * @param fingerprint the fingerprint of the configure inputs
+     * @return the cache file (may not exist yet)
+     */
+    public File resolve(Log log, String aol, String fingerprint) {
+        final File aolDirectory = new File(this.directory, aol);
+        aolDirectory.mkdirs();
+        final String name = fingerprint + ".cache";
+        final File[] files = aolDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (!file.getName().equals(name) && file.delete()) {
+                    log.info("Deleted outdated configure cache " + file.getName());
+                }
+            }
+        }
+        final File cacheFile = new File(aolDirectory, name);
+        log.info((cacheFile.exists() ? "Reusing" : "Creating") + " configure cache " + cacheFile);
+        return cacheFile;
+    }
+
+}
@@ -26,6 +26,7 @@ import org.codehaus.plexus.util.FileUtils;
  * 
  * @author mepeisen
  * @goal copy-sdk
+ * @threadSafe
  */
 public class CopySdkMojo extends AbstractNarMojo {
 
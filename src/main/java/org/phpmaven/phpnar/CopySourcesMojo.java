@@ -16,27 +16,73 @@ package org.phpmaven.phpnar;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.codehaus.plexus.util.FileUtils;
 
 /**
  * A goal to copy the sources into a working directory
  * 
  * @author mepeisen
  * @goal copy-sources
+ * @threadSafe
  */
 public class CopySourcesMojo extends AbstractNarMojo {
+    
+    /**
+     * The number of threads used to stage the sources; 0 means: number of available processors
+     * @parameter expression="${stagingThreads}"
+     */
+    private int stagingThreads = 0;
+    
+    /**
+     * True to compare content hashes before copying files whose size or modification time changed
+     * @parameter expression="${stagingHashContents}"
+     */
+    private boolean stagingHashContents = false;
+    
+    /**
+     * The staging strategy: "copy", "reflink", "hardlink", "symlink" or "auto" (tries reflink, hardlink, symlink and copy
+     * in this order). Linked sources save disk space and i/o for every additional aol.
+     * @parameter expression="${stagingStrategy}"
+     */
+    private String stagingStrategy = "copy";
+    
+    /**
+     * Patterns of files (relative to the sources) that are rewritten by the build in place and thus are always
+     * staged as private copies. Defaults to configure, generated headers and the build scripts.
+     * @parameter
+     */
+    private List<String> privateFiles = new ArrayList<String>(Arrays.asList(SourceStager.DEFAULT_PRIVATE_FILES));
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         super.execute();
+        
+        final BuildTimings timings = new BuildTimings("copy-sources");
+        try {
+            this.copySources(timings);
+        } finally {
+            timings.report(getLog(), new File(this.project.getBuild().getDirectory()));
+        }
+    }
+    
+    /**
+     * Copies the sources for all aol items
+     * @param timings the phase timings
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void copySources(BuildTimings timings) throws MojoExecutionException, MojoFailureException {
 
         for (final AolItem item : this.aolItems) {
             item.check(getLog(), project);
             
-            File targetFolder = new File(this.project.getBuild().getDirectory() + "/" + item.getAol());
+            final File aolFolder = new File(this.project.getBuild().getDirectory() + "/" + item.getAol());
+            File targetFolder = aolFolder;
             
             if ("Windows".equalsIgnoreCase(item.getEffectiveOs())) {
                 targetFolder = new File(targetFolder, "phpdev/vc9/" + item.getArch() + "/php-" + this.project.getVersion());
@@ -47,11 +93,26 @@ public class CopySourcesMojo extends AbstractNarMojo {
             
             getLog().info("Copying (modified) sources to " + targetFolder);
             final File sourceFolder = new File(this.project.getCompileSourceRoots().get(0));
+            final SourceStager stager;
+            try {
+                stager = new SourceStager(
+                    getLog(),
+                    this.stagingThreads > 0 ? this.stagingThreads : Runtime.getRuntime().availableProcessors(),
+                    this.stagingHashContents,
+                    this.stagingStrategy,
+                    this.privateFiles);
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+            final BuildTimings.Phase phase = timings.start(item.getAol().getKey(), "staging");
             try {
-                FileUtils.copyDirectoryStructureIfModified(sourceFolder, targetFolder);
+                stager.stage(sourceFolder.toPath(), targetFolder.toPath(), new File(aolFolder, "phpmaven.sources.manifest"));
             } catch (IOException e) {
                 throw new MojoFailureException("Error while copying sources", e);
             }
+            phase.stop();
+            timings.countProcesses(stager.getProcesses());
+            getLog().info("Staged sources: " + stager.getCopied() + " copied, " + stager.getSkipped() + " unchanged, " + stager.getDeleted() + " deleted");
         }
     }
     
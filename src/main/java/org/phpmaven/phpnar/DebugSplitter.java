@@ -0,0 +1,191 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.phpmaven.core.ExecutionUtils;
+
+/**
+ * Strips the ELF binaries of an *ix build (objcopy) and keeps their debug info in separate files.
+ * <p>
+ * The stripped copies are written to a mirror of the install folder. The debug files are named after the
+ * build-id of the binary (.build-id/xx/yyyy.debug, the layout gdb expects below its debug-file-directory);
+ * binaries without build-id keep their install path (&lt;path&gt;.debug). The stripped binaries additionally
+ * point to their debug file with a gnu-debuglink. Binaries are only stripped again if they changed.
+ * </p>
+ */
+final class DebugSplitter {
+
+    /**
+     * Pattern of the build-id in the output of readelf -n
+     */
+    private static final Pattern BUILD_ID = Pattern.compile("Build ID:\\s*([0-9a-fA-F]+)");
+
+    /**
+     * The logger
+     */
+    private final Log log;
+
+    /**
+     * The objcopy executable
+     */
+    private final String objcopy;
+
+    /**
+     * The readelf executable (same binutils prefix as objcopy)
+     */
+    private final String readelf;
+
+    /**
+     * The folder receiving the stripped binaries
+     */
+    private final File strippedFolder;
+
+    /**
+     * The folder receiving the debug files and their build-ids
+     */
+    private final File debugFolder;
+
+    /**
+     * The timings counting the processes
+     */
+    private final BuildTimings timings;
+
+    /**
+     * The debug files by nar entry name
+     */
+    private final Map<String, File> debugFiles = new TreeMap<String, File>();
+
+    /**
+     * Constructor
+     * @param log the logger
+     * @param objcopy the objcopy executable (f.e. "objcopy" or "x86_64-linux-gnu-objcopy")
+     * @param strippedFolder the folder receiving the stripped binaries
+     * @param debugFolder the folder receiving the debug files
+     * @param timings the timings
+     */
+    public DebugSplitter(Log log, String objcopy, File strippedFolder, File debugFolder, BuildTimings timings) {
+        this.log = log;
+        this.objcopy = objcopy;
+        this.readelf = objcopy.endsWith("objcopy") ? objcopy.substring(0, objcopy.length() - "objcopy".length()) + "readelf" : "readelf";
+        this.strippedFolder = strippedFolder;
+        this.debugFolder = debugFolder;
+        this.timings = timings;
+    }
+
+    /**
+     * Strips a binary or all binaries of a folder; other files are copied.
+     * @param source the binary or folder
+     * @param path the path relative to the install folder
+     * @return the stripped copy (or the source if it does not exist)
+     * @throws IOException thrown on errors
+     */
+    public File strip(File source, String path) throws IOException {
+        if (!source.exists()) {
+            return source;
+        }
+        final File target = new File(this.strippedFolder, path);
+        if (source.isDirectory()) {
+            target.mkdirs();
+            final Set<String> names = new HashSet<String>();
+            for (final File file : source.listFiles()) {
+                names.add(file.getName());
+                this.strip(file, path + "/" + file.getName());
+            }
+            // remove binaries that are not part of the install folder any more
+            for (final File file : target.listFiles()) {
+                if (!names.contains(file.getName())) {
+                    if (file.isDirectory()) {
+                        FileTreeUtils.deleteTree(file.toPath());
+                    } else {
+                        file.delete();
+                    }
+                }
+            }
+            return target;
+        }
+
+        if (!isElf(source)) {
+            if (!target.exists() || target.lastModified() < source.lastModified()) {
+                target.getParentFile().mkdirs();
+                FileUtils.copyFile(source, target);
+            }
+            return target;
+        }
+
+        final File debugFile = new File(this.debugFolder, path + ".debug");
+        final File buildIdFile = new File(this.debugFolder, path + ".build-id");
+        if (!target.exists() || target.lastModified() < source.lastModified() || !debugFile.exists()) {
+            target.delete();
+            debugFile.getParentFile().mkdirs();
+            target.getParentFile().mkdirs();
+            this.execute("\"" + this.objcopy + "\" --only-keep-debug \"" + source.getAbsolutePath() + "\" \"" + debugFile.getAbsolutePath() + "\"");
+            this.execute("\"" + this.objcopy + "\" --strip-unneeded --add-gnu-debuglink=\"" + debugFile.getAbsolutePath() + "\" \"" +
+                source.getAbsolutePath() + "\" \"" + target.getAbsolutePath() + "\"");
+            final Matcher matcher = BUILD_ID.matcher(this.execute("\"" + this.readelf + "\" -n \"" + target.getAbsolutePath() + "\""));
+            FileUtils.fileWrite(buildIdFile.getAbsolutePath(), "UTF-8", matcher.find() ? matcher.group(1).toLowerCase() : "");
+            this.log.debug("Stripped " + path + " (" + source.length() / 1024 + " KB -> " + target.length() / 1024 + " KB)");
+        }
+
+        final String buildId = buildIdFile.exists() ? FileUtils.fileRead(buildIdFile, "UTF-8").trim() : "";
+        if (buildId.length() > 2) {
+            this.debugFiles.put(".build-id/" + buildId.substring(0, 2) + "/" + buildId.substring(2) + ".debug", debugFile);
+        } else {
+            this.debugFiles.put(path + ".debug", debugFile);
+        }
+        return target;
+    }
+
+    /**
+     * Returns the debug files of all stripped binaries
+     * @return debug files by nar entry name
+     */
+    public Map<String, File> getDebugFiles() {
+        return this.debugFiles;
+    }
+
+    private String execute(String command) throws IOException {
+        this.timings.countProcesses(1);
+        try {
+            return ExecutionUtils.executeCommand(this.log, command);
+        } catch (CommandLineException ex) {
+            throw new IOException("Error executing " + command, ex);
+        }
+    }
+
+    private static boolean isElf(File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] magic = new byte[4];
+            return in.read(magic) == 4 && magic[0] == 0x7f && magic[1] == 'E' && magic[2] == 'L' && magic[3] == 'F';
+        } finally {
+            in.close();
+        }
+    }
+
+}
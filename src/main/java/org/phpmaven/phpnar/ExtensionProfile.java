@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * A named set of additional extensions.
+ * <p>
+ * The extensions of a profile are built as shared modules against the core build of every aol (the core is
+ * built only once) and packaged with the classifier &lt;aol&gt;-&lt;profile name&gt;.
+ * </p>
+ */
+public class ExtensionProfile {
+
+    /**
+     * The profile name (used as classifier suffix)
+     */
+    private String name;
+
+    /**
+     * The extensions to be built as shared modules
+     */
+    private List<Extension> extensions = new ArrayList<Extension>();
+
+    /**
+     * Constructor
+     */
+    public ExtensionProfile() {
+        // empty
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Extension> getExtensions() {
+        return extensions;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setExtensions(List<Extension> extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * Checks the profile definition
+     * @throws MojoFailureException thrown on invalid profiles
+     */
+    public void check() throws MojoFailureException {
+        if (this.name == null || !this.name.matches("[A-Za-z0-9_.]+")) {
+            throw new MojoFailureException("Invalid extension profile name " + this.name);
+        }
+        if ("devel".equals(this.name) || "sdk".equals(this.name) || "deps".equals(this.name) || "debug".equals(this.name)) {
+            throw new MojoFailureException("Extension profile name " + this.name + " is reserved");
+        }
+        for (final Extension ext : this.extensions) {
+            if (ext.getName() == null || ext.getName().length() == 0) {
+                throw new MojoFailureException("Extension name not set in extension profile " + this.name);
+            }
+            if (!Boolean.TRUE.equals(ext.getEnable()) && !Boolean.TRUE.equals(ext.getWith())) {
+                throw new MojoFailureException("Extension profile " + this.name + " can only add extensions; set enable or with to true for " + ext.getName());
+            }
+            if (Boolean.FALSE.equals(ext.getShared())) {
+                throw new MojoFailureException("Extension " + ext.getName() + " of extension profile " + this.name + " is always built as shared module");
+            }
+        }
+    }
+
+    /**
+     * Returns the configure argument of a profile extension
+     * @param ext the extension
+     * @return configure argument (f.e. "--with-curl=shared")
+     */
+    public static String getConfigureArg(Extension ext) {
+        return (Boolean.TRUE.equals(ext.getEnable()) ? "--enable-" : "--with-") + ext.getName() + "=shared";
+    }
+
+}
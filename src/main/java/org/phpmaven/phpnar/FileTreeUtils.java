@@ -0,0 +1,130 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+/**
+ * Helpers to copy, delete and measure directory trees (preserving permissions and symbolic links) and to
+ * change file permissions without spawning processes.
+ */
+final class FileTreeUtils {
+
+    private FileTreeUtils() {
+        // hidden
+    }
+
+    /**
+     * Copies a directory tree; file attributes (permissions, timestamps) and symbolic links are preserved.
+     * @param source the source directory
+     * @param target the target directory
+     * @throws IOException thrown on copy errors
+     */
+    public static void copyTree(final Path source, final Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                    StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes a directory tree; symbolic links are deleted but not followed.
+     * @param root the directory (or file) to be deleted
+     * @throws IOException thrown on delete errors
+     */
+    public static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns the size of all files within a directory tree.
+     * @param root the directory
+     * @return size in bytes
+     * @throws IOException thrown on read errors
+     */
+    public static long sizeOf(Path root) throws IOException {
+        final long[] size = new long[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+    /**
+     * Makes a file executable for owner, group and others (like "chmod +x" with the usual umask).
+     * @param file the file
+     * @throws IOException thrown if the permissions cannot be changed
+     */
+    public static void setExecutable(Path file) throws IOException {
+        final PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (view == null) {
+            // no posix file system
+            if (!file.toFile().setExecutable(true, false)) {
+                throw new IOException("Unable to make " + file + " executable");
+            }
+            return;
+        }
+        final Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+        final boolean changed = permissions.add(PosixFilePermission.OWNER_EXECUTE)
+            | permissions.add(PosixFilePermission.GROUP_EXECUTE)
+            | permissions.add(PosixFilePermission.OTHERS_EXECUTE);
+        if (changed) {
+            view.setPermissions(permissions);
+        }
+    }
+
+}
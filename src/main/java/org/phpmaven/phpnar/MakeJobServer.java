@@ -0,0 +1,187 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.phpmaven.core.ExecutionUtils;
+
+/**
+ * A GNU make jobserver shared by several concurrent make processes.
+ * <p>
+ * The job tokens are kept in a named pipe. Every build script opens the pipe as file descriptor 3
+ * and hands it to make via MAKEFLAGS, so all make processes (and their sub makes) draw from
+ * the same token pool instead of each one starting its own -j jobs.
+ * </p>
+ */
+final class MakeJobServer {
+
+    /**
+     * The file descriptor used by the build scripts to access the jobserver pipe
+     */
+    private static final int FD = 3;
+
+    /**
+     * The named pipe
+     */
+    private final File fifo;
+
+    /**
+     * Handle keeping the pipe (and the tokens inside) alive while the builds are running
+     */
+    private final RandomAccessFile handle;
+
+    /**
+     * The total number of jobs
+     */
+    private final int jobs;
+
+    /**
+     * The make option used to pass the file descriptors (--jobserver-auth or --jobserver-fds for make before 4.2)
+     */
+    private final String authOption;
+
+    private MakeJobServer(File fifo, RandomAccessFile handle, int jobs, String authOption) {
+        this.fifo = fifo;
+        this.handle = handle;
+        this.jobs = jobs;
+        this.authOption = authOption;
+    }
+
+    /**
+     * Starts a new jobserver.
+     * @param log the logger
+     * @param fifo the named pipe to be created
+     * @param jobs the total number of concurrent jobs
+     * @param clients the number of make processes sharing the jobserver (each of them owns one implicit token)
+     * @param timings the timings counting the spawned processes
+     * @return jobserver or null if the installed make does not support a shared jobserver
+     * @throws IOException thrown if the pipe could not be created
+     */
+    public static MakeJobServer start(Log log, File fifo, int jobs, int clients, BuildTimings timings) throws IOException {
+        timings.countProcesses(1);
+        final String authOption = detectAuthOption(log);
+        if (authOption == null) {
+            return null;
+        }
+
+        if (fifo.exists()) {
+            fifo.delete();
+        }
+        fifo.getParentFile().mkdirs();
+        // there is no java api to create named pipes
+        timings.countProcesses(1);
+        try {
+            ExecutionUtils.executeCommand(log, "mkfifo \"" + fifo.getAbsolutePath() + "\"");
+        } catch (CommandLineException ex) {
+            throw new IOException("Unable to create the jobserver pipe " + fifo, ex);
+        }
+
+        // opening read/write does not block on a named pipe and keeps the tokens alive until close()
+        final RandomAccessFile handle = new RandomAccessFile(fifo, "rw");
+        final int tokens = Math.max(0, jobs - clients);
+        final byte[] buffer = new byte[tokens];
+        for (int i = 0; i < tokens; i++) {
+            buffer[i] = '+';
+        }
+        handle.write(buffer);
+        log.info("Started shared make jobserver with " + jobs + " jobs for " + clients + " builds");
+        return new MakeJobServer(fifo, handle, jobs, authOption);
+    }
+
+    /**
+     * Returns the shell lines that connect the make processes of a build script to this jobserver.
+     * @return script lines
+     */
+    public String getScriptPrelude() {
+        return "exec " + FD + "<>\"" + this.fifo.getAbsolutePath() + "\"\n" +
+            "export MAKEFLAGS=\"-j" + this.jobs + " " + this.authOption + "=" + FD + "," + FD + "\"\n";
+    }
+
+    /**
+     * Returns the total number of jobs
+     * @return jobs
+     */
+    public int getJobs() {
+        return this.jobs;
+    }
+
+    /**
+     * Returns the jobs of each of the builds running in parallel without a shared jobserver.
+     * @param jobs the total number of concurrent jobs
+     * @param builds the number of builds running in parallel
+     * @return jobs per build (at least 1)
+     */
+    static int getJobsPerBuild(int jobs, int builds) {
+        return Math.max(1, jobs / builds);
+    }
+
+    /**
+     * Stops the jobserver and removes the named pipe.
+     */
+    public void close() {
+        try {
+            this.handle.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+        this.fifo.delete();
+    }
+
+    /**
+     * Detects the make option to pass the jobserver file descriptors.
+     * @param log the logger
+     * @return option or null if the installed make is not a GNU make
+     */
+    private static String detectAuthOption(Log log) {
+        final String version;
+        try {
+            version = ExecutionUtils.executeCommand(log, "make --version");
+        } catch (CommandLineException ex) {
+            log.warn("Unable to detect the make version; not using a shared jobserver");
+            return null;
+        }
+        final String option = getAuthOption(version);
+        if (option == null) {
+            log.warn("make is not GNU make; not using a shared jobserver");
+        }
+        return option;
+    }
+
+    /**
+     * Returns the make option to pass the jobserver file descriptors.
+     * @param version the output of make --version
+     * @return --jobserver-auth for GNU make 4.2 and newer, --jobserver-fds for older GNU make, null for other makes
+     */
+    static String getAuthOption(String version) {
+        final Matcher matcher = Pattern.compile("GNU Make (\\d+)\\.(\\d+)").matcher(version);
+        if (!matcher.find()) {
+            return null;
+        }
+        final int major = Integer.parseInt(matcher.group(1));
+        final int minor = Integer.parseInt(matcher.group(2));
+        if (major > 4 || (major == 4 && minor >= 2)) {
+            return "--jobserver-auth";
+        }
+        return "--jobserver-fds";
+    }
+
+}
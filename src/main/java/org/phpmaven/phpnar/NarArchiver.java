@@ -0,0 +1,693 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipExtraField;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Creates nar (zip) files.
+ * <p>
+ * The entries are collected first. While writing, the entries are deflated in parallel on a worker pool
+ * (scatter) and the compressed data is appended to the zip file as raw entries in the original order (gather).
+ * The result is a plain zip file just like the one created by a single {@link java.util.zip.ZipOutputStream}.
+ * The workers hold at most 64 MB of pending entries; entries above 16 MB are deflated by the writer while
+ * writing instead of being buffered.
+ * </p>
+ * <p>
+ * Already compressed content (detected by file extension or by compressing a sample) is stored instead of
+ * being deflated.
+ * </p>
+ * <p>
+ * A fingerprint of all inputs is recorded next to the zip file (&lt;file&gt;.inputs); {@link #writeIfChanged(File)}
+ * skips the zip creation if the inputs did not change since the last run.
+ * </p>
+ * <p>
+ * The same entries can additionally be written as tar.zst or tar.xz file (see {@link #writeTarIfChanged(File, String, int)}).
+ * Zip and tar entries keep the executable bit of their files.
+ * </p>
+ * <p>
+ * In reproducible mode the entries are sorted by name and timestamps, permissions and extra fields are
+ * normalized, so identical inputs always produce identical zip files.
+ * </p>
+ */
+final class NarArchiver {
+
+    /**
+     * Extensions of files that are already compressed
+     */
+    private static final String[] COMPRESSED_EXTENSIONS = {
+        ".gz", ".tgz", ".bz2", ".xz", ".zst", ".zip", ".jar", ".nar", ".png", ".jpg", ".jpeg", ".gif"
+    };
+
+    /**
+     * Files above this size are sampled before being deflated
+     */
+    private static final int SAMPLE_SIZE = 65536;
+
+    /**
+     * Entries whose sample does not compress below this ratio are stored
+     */
+    private static final double STORE_RATIO = 0.95;
+
+    /**
+     * Buffer size for reading and copying files
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Entries above this size are deflated by the writer while writing instead of being buffered in memory
+     */
+    private static final long STREAM_THRESHOLD = 16L * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes of the entries being compressed ahead of the writer
+     */
+    private static final long WINDOW_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The entries
+     */
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * The worker pool
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The maximum number of entries being compressed ahead of the writer (the memory usage is bounded by
+     * {@link #WINDOW_BYTES})
+     */
+    private final int window;
+
+    /**
+     * The deflate compression level (0-9 or -1 for the default level)
+     */
+    private final int level;
+
+    /**
+     * The normalized timestamp (reproducible mode) or -1
+     */
+    private long reproducibleTime = -1;
+
+    /**
+     * The timestamp (milliseconds since epoch) of the tar entries in reproducible mode or -1
+     */
+    private long reproducibleEpoch = -1;
+
+    /**
+     * Number of stored (not deflated) entries written
+     */
+    private int storedCount;
+
+    /**
+     * Uncompressed size of the entries written
+     */
+    private long size;
+
+    /**
+     * Constructor
+     * @param executor the worker pool used to compress the entries
+     * @param threads the number of threads of the worker pool
+     * @param level the deflate compression level (0-9 or -1 for the default level); 0 stores all entries
+     */
+    public NarArchiver(ExecutorService executor, int threads, int level) {
+        this.executor = executor;
+        this.window = threads * 4;
+        this.level = level;
+    }
+
+    /**
+     * Enables the reproducible mode
+     * @param timestamp the timestamp (milliseconds since epoch) used for all entries
+     */
+    public void setReproducible(long timestamp) {
+        // zip files store the local time; shift the timestamp so that the stored value does not depend on the time zone
+        this.reproducibleTime = timestamp - TimeZone.getDefault().getOffset(timestamp);
+        this.reproducibleEpoch = timestamp;
+    }
+
+    /**
+     * Adds a file
+     * @param file the file
+     * @param name the entry name
+     */
+    public void addFile(File file, String name) {
+        this.entries.add(new Entry(name, file, null, file.lastModified()));
+    }
+
+    /**
+     * Adds an entry with given contents
+     * @param name the entry name
+     * @param data the contents
+     * @param time the modification time
+     */
+    public void addBytes(String name, byte[] data, long time) {
+        this.addBytes(name, data, time, false);
+    }
+
+    /**
+     * Adds an entry with given contents
+     * @param name the entry name
+     * @param data the contents
+     * @param time the modification time
+     * @param executable true for executable contents (f.e. scripts)
+     */
+    public void addBytes(String name, byte[] data, long time, boolean executable) {
+        final Entry entry = new Entry(name, null, data, time);
+        entry.executable = executable;
+        this.entries.add(entry);
+    }
+
+    /**
+     * Adds a directory entry
+     * @param name the entry name (ending with "/")
+     * @param time the modification time
+     */
+    public void addDirectory(String name, long time) {
+        this.entries.add(new Entry(name, null, null, time));
+    }
+
+    /**
+     * Writes the zip file unless it is up to date.
+     * @param target the target file
+     * @return true if the file was written; false if it was up to date
+     * @throws IOException thrown on io errors
+     */
+    public boolean writeIfChanged(File target) throws IOException {
+        final String fingerprint = this.fingerprint();
+        if (isUpToDate(target, fingerprint)) {
+            return false;
+        }
+        try {
+            this.write(target);
+        } catch (IOException ex) {
+            target.delete();
+            throw ex;
+        }
+        markUpToDate(target, fingerprint);
+        return true;
+    }
+
+    /**
+     * Writes the entries as compressed tar file unless it is up to date.
+     * @param target the target file
+     * @param format "tar.zst" or "tar.xz"
+     * @param compressionLevel the compression level (-1 for zstd 19 or xz 6)
+     * @return true if the file was written; false if it was up to date
+     * @throws IOException thrown on io errors
+     */
+    public boolean writeTarIfChanged(File target, String format, int compressionLevel) throws IOException {
+        final String fingerprint = this.fingerprint() + "\t" + format + "\t" + compressionLevel;
+        if (isUpToDate(target, fingerprint)) {
+            return false;
+        }
+        try {
+            this.writeTar(target, format, compressionLevel);
+        } catch (IOException ex) {
+            target.delete();
+            throw ex;
+        }
+        markUpToDate(target, fingerprint);
+        return true;
+    }
+
+    private static boolean isUpToDate(File target, String fingerprint) throws IOException {
+        final File inputsFile = new File(target.getPath() + ".inputs");
+        if (target.exists() && inputsFile.exists() && fingerprint.equals(FileUtils.fileRead(inputsFile, "UTF-8").trim())) {
+            return true;
+        }
+        inputsFile.delete();
+        return false;
+    }
+
+    private static void markUpToDate(File target, String fingerprint) throws IOException {
+        FileUtils.fileWrite(target.getPath() + ".inputs", "UTF-8", fingerprint);
+    }
+
+    /**
+     * Calculates the fingerprint of all inputs (entry names, file sizes and modification times, generated contents
+     * and the compression level).
+     * @return hex encoded fingerprint
+     */
+    public String fingerprint() {
+        this.sortIfReproducible();
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final StringBuilder header = new StringBuilder("level=" + this.level + "\nreproducible=" + this.reproducibleTime + "\n");
+        for (final Entry entry : this.entries) {
+            header.append(entry.name).append('\t').append(entry.time).append('\t').append(Integer.toOctalString(entry.mode()));
+            if (entry.file != null) {
+                header.append("\tfile\t").append(entry.file.getAbsolutePath()).append('\t').append(entry.file.length());
+            } else if (entry.data != null) {
+                header.append("\tdata\t").append(entry.data.length);
+                digest.update(entry.data);
+            }
+            header.append('\n');
+        }
+        try {
+            digest.update(header.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final StringBuilder result = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            result.append(String.format("%02x", b & 0xff));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes the zip file.
+     * @param target the target file
+     * @throws IOException thrown on io errors
+     */
+    public void write(File target) throws IOException {
+        this.storedCount = 0;
+        this.size = 0;
+        this.sortIfReproducible();
+        final ZipArchiveOutputStream zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE));
+        try {
+            zos.setLevel(this.level);
+            final LinkedList<Future<Compressed>> pending = new LinkedList<Future<Compressed>>();
+            long pendingBytes = 0;
+            int next = 0;
+            for (final Entry entry : this.entries) {
+                while (next < this.entries.size() && pending.size() < this.window &&
+                        (pending.isEmpty() || pendingBytes + this.entries.get(next).bufferedSize() <= WINDOW_BYTES)) {
+                    pendingBytes += this.entries.get(next).bufferedSize();
+                    pending.add(this.executor.submit(this.entries.get(next)));
+                    next++;
+                }
+                final Compressed compressed = get(pending.removeFirst());
+                pendingBytes -= entry.bufferedSize();
+
+                final ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.name);
+                if (this.reproducibleTime != -1) {
+                    zipEntry.setTime(this.reproducibleTime);
+                    zipEntry.setExtraFields(new ZipExtraField[0]);
+                } else {
+                    zipEntry.setTime(entry.time);
+                }
+                zipEntry.setUnixMode((compressed == null ? UnixStat.DIR_FLAG : UnixStat.FILE_FLAG) | entry.mode());
+                if (compressed == null) {
+                    zos.putArchiveEntry(zipEntry);
+                    zos.closeArchiveEntry();
+                } else if (compressed.streamed) {
+                    // too big to be buffered; deflated while writing
+                    zipEntry.setMethod(ZipEntry.DEFLATED);
+                    zos.putArchiveEntry(zipEntry);
+                    final InputStream in = entry.open();
+                    try {
+                        final byte[] buffer = new byte[BUFFER_SIZE];
+                        int count;
+                        while ((count = in.read(buffer)) != -1) {
+                            zos.write(buffer, 0, count);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    zos.closeArchiveEntry();
+                    this.size += compressed.size;
+                } else if (compressed.data == null) {
+                    // stored; copied from the source without compression
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setCrc(compressed.crc);
+                    zipEntry.setSize(compressed.size);
+                    zipEntry.setCompressedSize(compressed.size);
+                    final InputStream in = entry.open();
+                    try {
+                        zos.addRawArchiveEntry(zipEntry, in);
+                    } finally {
+                        in.close();
+                    }
+                    this.storedCount++;
+                    this.size += compressed.size;
+                } else {
+                    zipEntry.setMethod(ZipEntry.DEFLATED);
+                    zipEntry.setCrc(compressed.crc);
+                    zipEntry.setSize(compressed.size);
+                    zipEntry.setCompressedSize(compressed.data.length);
+                    zos.addRawArchiveEntry(zipEntry, new ByteArrayInputStream(compressed.data));
+                    this.size += compressed.size;
+                }
+            }
+            zos.finish();
+        } finally {
+            zos.close();
+        }
+    }
+
+    /**
+     * Writes the entries as compressed tar file.
+     * @param target the target file
+     * @param format "tar.zst" or "tar.xz"
+     * @param compressionLevel the compression level (-1 for zstd 19 or xz 6)
+     * @throws IOException thrown on io errors
+     */
+    public void writeTar(File target, String format, int compressionLevel) throws IOException {
+        this.sortIfReproducible();
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+        final OutputStream compressor;
+        try {
+            if ("tar.zst".equals(format)) {
+                compressor = new ZstdCompressorOutputStream(out, compressionLevel == -1 ? 19 : compressionLevel);
+            } else if ("tar.xz".equals(format)) {
+                compressor = new XZCompressorOutputStream(out, compressionLevel == -1 ? 6 : compressionLevel);
+            } else {
+                throw new IllegalArgumentException("Unknown archive format " + format);
+            }
+        } catch (RuntimeException ex) {
+            out.close();
+            throw ex;
+        }
+        final TarArchiveOutputStream tos = new TarArchiveOutputStream(compressor);
+        try {
+            tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            for (final Entry entry : this.entries) {
+                // directory entries of the nar files start with a slash
+                final String name = entry.name.startsWith("/") ? entry.name.substring(1) : entry.name;
+                final TarArchiveEntry tarEntry = new TarArchiveEntry(name);
+                tarEntry.setModTime(this.reproducibleEpoch != -1 ? this.reproducibleEpoch : entry.time);
+                tarEntry.setMode((entry.isDirectory() ? TarArchiveEntry.DEFAULT_DIR_MODE & ~0777 : TarArchiveEntry.DEFAULT_FILE_MODE & ~0777) | entry.mode());
+                if (entry.isDirectory()) {
+                    tos.putArchiveEntry(tarEntry);
+                    tos.closeArchiveEntry();
+                    continue;
+                }
+                tarEntry.setSize(entry.file != null ? entry.file.length() : entry.data.length);
+                tos.putArchiveEntry(tarEntry);
+                final InputStream in = entry.open();
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        tos.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+                tos.closeArchiveEntry();
+            }
+            tos.finish();
+        } finally {
+            tos.close();
+        }
+    }
+
+    private void sortIfReproducible() {
+        if (this.reproducibleTime != -1) {
+            Collections.sort(this.entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    return o1.name.compareTo(o2.name);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of entries
+     * @return number of entries
+     */
+    public int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the number of stored (not deflated) entries of the last written zip file
+     * @return number of stored entries
+     */
+    public int getStoredCount() {
+        return this.storedCount;
+    }
+
+    /**
+     * Returns the uncompressed size of the last written zip file
+     * @return size in bytes
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    private static Compressed get(Future<Compressed> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Error compressing nar entry", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing nar entries", ex);
+        }
+    }
+
+    /**
+     * Compressed contents of an entry
+     */
+    private static final class Compressed {
+
+        /**
+         * The deflated data; null for stored entries
+         */
+        final byte[] data;
+
+        final long crc;
+
+        final long size;
+
+        /**
+         * True if the entry is deflated by the writer (data and crc are not set)
+         */
+        final boolean streamed;
+
+        Compressed(byte[] data, long crc, long size) {
+            this(data, crc, size, false);
+        }
+
+        Compressed(byte[] data, long crc, long size, boolean streamed) {
+            this.data = data;
+            this.crc = crc;
+            this.size = size;
+            this.streamed = streamed;
+        }
+
+    }
+
+    /**
+     * A single entry; compresses its contents when invoked on the worker pool.
+     */
+    private final class Entry implements Callable<Compressed> {
+
+        final String name;
+
+        final File file;
+
+        final byte[] data;
+
+        final long time;
+
+        /**
+         * The size of the file (0 for generated contents)
+         */
+        final long length;
+
+        /**
+         * True for executable generated contents
+         */
+        boolean executable;
+
+        Entry(String name, File file, byte[] data, long time) {
+            this.name = name;
+            this.file = file;
+            this.data = data;
+            this.time = time;
+            this.length = file != null ? file.length() : 0;
+        }
+
+        boolean isDirectory() {
+            return this.file == null && this.data == null;
+        }
+
+        /**
+         * Returns the permissions of the entry
+         * @return 0755 for directories and executables, 0644 otherwise
+         */
+        int mode() {
+            if (this.isDirectory() || this.executable || (this.file != null && this.file.canExecute())) {
+                return 0755;
+            }
+            return 0644;
+        }
+
+        /**
+         * Returns the number of bytes the entry may occupy in memory until it is written
+         * @return bytes
+         */
+        long bufferedSize() {
+            if (this.file != null) {
+                return this.length > STREAM_THRESHOLD ? 0 : this.length;
+            }
+            return this.data == null ? 0 : this.data.length;
+        }
+
+        InputStream open() throws IOException {
+            return this.file != null ? new BufferedInputStream(new FileInputStream(this.file), BUFFER_SIZE) : new ByteArrayInputStream(this.data);
+        }
+
+        @Override
+        public Compressed call() throws IOException {
+            if (this.file == null && this.data == null) {
+                // directory
+                return null;
+            }
+            if (level == 0 || this.isCompressed()) {
+                return this.store();
+            }
+            if (this.file != null && this.length > STREAM_THRESHOLD) {
+                return new Compressed(null, -1, this.length, true);
+            }
+            final InputStream in = this.file != null ? new FileInputStream(this.file) : new ByteArrayInputStream(this.data);
+            try {
+                final CRC32 crc = new CRC32();
+                final Deflater deflater = new Deflater(level, true);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                long size = 0;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    dos.write(buffer, 0, count);
+                    size += count;
+                }
+                dos.finish();
+                deflater.end();
+                if (out.size() >= size) {
+                    // deflate did not help
+                    return new Compressed(null, crc.getValue(), size);
+                }
+                return new Compressed(out.toByteArray(), crc.getValue(), size);
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Calculates the checksum of a stored entry.
+         * @return compressed info without data
+         * @throws IOException
+         */
+        private Compressed store() throws IOException {
+            final InputStream in = this.open();
+            try {
+                final CRC32 crc = new CRC32();
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                long size = 0;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                }
+                return new Compressed(null, crc.getValue(), size);
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Checks if the content is already compressed (by extension or by deflating a sample).
+         * @return true for compressed content
+         * @throws IOException
+         */
+        private boolean isCompressed() throws IOException {
+            final String lowerName = this.name.toLowerCase();
+            for (final String ext : COMPRESSED_EXTENSIONS) {
+                if (lowerName.endsWith(ext)) {
+                    return true;
+                }
+            }
+            if (this.file == null || this.file.length() <= SAMPLE_SIZE * 4) {
+                return false;
+            }
+            final byte[] sample = new byte[SAMPLE_SIZE];
+            int length = 0;
+            final InputStream in = new FileInputStream(this.file);
+            try {
+                int count;
+                while (length < sample.length && (count = in.read(sample, length, sample.length - length)) != -1) {
+                    length += count;
+                }
+            } finally {
+                in.close();
+            }
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            final byte[] out = new byte[SAMPLE_SIZE];
+            int compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+            }
+            deflater.end();
+            return compressed >= length * STORE_RATIO;
+        }
+
+    }
+
+}
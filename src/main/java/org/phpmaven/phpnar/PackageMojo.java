@@ -14,14 +14,12 @@
 
 package org.phpmaven.phpnar;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -34,6 +32,7 @@ import org.codehaus.plexus.util.FileUtils;
  * 
  * @author mepeisen
  * @goal package
+ * @threadSafe
  */
 public class PackageMojo extends AbstractNarMojo {
     
@@ -43,11 +42,91 @@ public class PackageMojo extends AbstractNarMojo {
      * @required
      */
     private MavenProjectHelper projectHelper;
+    
+    /**
+     * The number of threads compressing the nar entries; 0 means: number of available processors
+     * @parameter expression="${packageThreads}"
+     */
+    private int packageThreads = 0;
+    
+    /**
+     * The deflate compression level of the nar files (0-9 or -1 for the default level). Already compressed
+     * content is always stored.
+     * @parameter expression="${compressionLevel}"
+     */
+    private int compressionLevel = -1;
+    
+    /**
+     * True to create reproducible nar files (sorted entries, normalized timestamps and permissions)
+     * @parameter expression="${reproducible}"
+     */
+    private boolean reproducible = false;
+    
+    /**
+     * The timestamp (seconds since epoch) of all nar entries in reproducible mode; defaults to the environment
+     * variable SOURCE_DATE_EPOCH or 1980-01-01 if it is not set.
+     * @parameter expression="${sourceDateEpoch}"
+     */
+    private Long sourceDateEpoch;
+    
+    /**
+     * The objcopy executable used to strip the binaries (see stripBinaries); readelf is taken from the same binutils
+     * @parameter expression="${objcopy}"
+     */
+    private String objcopy = "objcopy";
+    
+    /**
+     * The format of the companion archives written next to the *ix nar files: "tar.zst", "tar.xz" or "none".
+     * The companions contain the same entries as the nar files and are attached with the same classifier.
+     * @parameter expression="${narCompanionFormat}"
+     */
+    private String companionFormat = "none";
+    
+    /**
+     * The compression level of the companion archives; -1 for the default level (zstd 19, xz 6)
+     * @parameter expression="${narCompanionLevel}"
+     */
+    private int companionLevel = -1;
+    
+    /**
+     * The number of compression threads
+     */
+    private int threads;
+    
+    /**
+     * The worker pool compressing the nar entries
+     */
+    private ExecutorService executor;
+    
+    /**
+     * The phase timings
+     */
+    private BuildTimings timings;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         super.execute();
         
+        if (!"none".equals(this.companionFormat) && !"tar.zst".equals(this.companionFormat) && !"tar.xz".equals(this.companionFormat)) {
+            throw new MojoExecutionException("Unknown nar companion format " + this.companionFormat + " (tar.zst, tar.xz or none)");
+        }
+        this.threads = this.packageThreads > 0 ? this.packageThreads : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(this.threads);
+        this.timings = new BuildTimings("package");
+        try {
+            this.packageNars();
+        } finally {
+            this.executor.shutdownNow();
+            this.timings.report(getLog(), new File(this.project.getBuild().getDirectory()));
+        }
+    }
+    
+    /**
+     * Creates and attaches the nar files
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    private void packageNars() throws MojoExecutionException, MojoFailureException {
         final File packageFolder = new File(this.project.getBuild().getDirectory());
 
         for (final AolItem item : this.aolItems) {
@@ -80,7 +159,7 @@ public class PackageMojo extends AbstractNarMojo {
                     if (!developerPackage.exists()) {
                         if (this.project.getVersion().startsWith("5.3.")) {
                             // create the developer pack manually for 5.3.x
-                            final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(developerPackage));
+                            final NarArchiver zos = newArchiver();
                             final String prefix = "/php-" + project.getVersion() + "-devel-VC9-" + effectiveArch + "/";
                             zip(zos, new File(buildRootFolder, "win32/build/confutils.js"), prefix + "script/confutils.js");
                             zip(zos, new File(buildRootFolder, "win32/build/configure.tail"), prefix + "script/configure.tail");
@@ -103,8 +182,7 @@ public class PackageMojo extends AbstractNarMojo {
                             zipHeaders(zos, new File(buildRootFolder, "ext/pcre/pcrelib"), prefix + "include/ext/pcre/pcrelib");
                             zipHeaders(zos, new File(buildRootFolder, "ext/standard"), prefix + "include/ext/standard");
                             zipHeaders(zos, new File(buildRootFolder, "ext/xml"), prefix + "include/ext/xml");
-                            zos.flush();
-                            zos.close();
+                            writeNar(zos, developerPackage);
                         } else {
                             // fail
                             throw new MojoFailureException("developer package " + developerPackage.getAbsolutePath() + " not found. Possible build failure.");
@@ -124,60 +202,87 @@ public class PackageMojo extends AbstractNarMojo {
                     
                     // sdk files
                     final File sdkNarFile = new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + "-" + item.getClassifier() + "-sdk.nar");
-                    if (!sdkNarFile.exists()) {
-                        ZipOutputStream target = new ZipOutputStream(new FileOutputStream(sdkNarFile));
-                        zip(target, new File(targetFolder, "bin"), "/bin");
-                        zip(target, new File(targetFolder, "script"), "/script");
-                        target.flush();
-                        target.close();
-                    }
+                    final NarArchiver sdkTarget = newArchiver();
+                    zip(sdkTarget, new File(targetFolder, "bin"), "/bin");
+                    zip(sdkTarget, new File(targetFolder, "script"), "/script");
+                    writeNar(sdkTarget, sdkNarFile);
                     this.projectHelper.attachArtifact(this.project, "nar", item.getClassifier() + "-sdk", sdkNarFile);
                     
                     // dependencies files
                     final File depsNarFile = new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + "-" + item.getClassifier() + "-deps.nar");
-                    if (!depsNarFile.exists()) {
-                        ZipOutputStream target = new ZipOutputStream(new FileOutputStream(depsNarFile));
-                        zip(target, new File(buildRootFolder.getParentFile(), "deps"), "/deps");
-                        target.flush();
-                        target.close();
-                    }
+                    final NarArchiver depsTarget = newArchiver();
+                    zip(depsTarget, new File(buildRootFolder.getParentFile(), "deps"), "/deps");
+                    writeNar(depsTarget, depsNarFile);
                     this.projectHelper.attachArtifact(this.project, "nar", item.getClassifier() + "-deps", depsNarFile);
                 } else {
                     final File buildRootFolder = new File(targetFolder, "phpmaven.install");
                     
+                    DebugSplitter splitter = null;
+                    if (this.stripBinaries && "Linux".equalsIgnoreCase(item.getEffectiveOs())) {
+                        splitter = new DebugSplitter(getLog(), this.objcopy, new File(targetFolder, "phpmaven.stripped"), new File(targetFolder, "phpmaven.debug"), this.timings);
+                    } else if (this.stripBinaries) {
+                        getLog().warn("Stripping binaries is only supported for Linux builds; packaging " + item + " unstripped");
+                    }
+                    final BuildTimings.Phase stripPhase = this.timings.start(item.getAol().getKey(), "strip");
+                    final File php = binary(splitter, buildRootFolder, "bin/php");
+                    final File phpCgi = binary(splitter, buildRootFolder, "bin/php-cgi");
+                    final File modules = binary(splitter, buildRootFolder, "modules");
+                    final File libphp = binary(splitter, buildRootFolder, "lib/libphp5.so");
+                    stripPhase.stop();
+                    
                     // executable
                     final File executableNarFile = new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + "-" + item.getClassifier() + ".nar");
-                    if (executableNarFile.exists()) {
-                        executableNarFile.delete();
-                    }
                     if (!new File(buildRootFolder, "bin/php").exists() && !new File(buildRootFolder, "bin/php-cgi").exists()) {
                         throw new MojoFailureException("executables bin/php and bin/php-cgi not found. Possible build failure.");
                     }
                     
-                    final ZipOutputStream executableTarget = new ZipOutputStream(new FileOutputStream(executableNarFile));
-                    zip(executableTarget, new File(buildRootFolder, "bin/php"), "/bin/php");
-                    zip(executableTarget, new File(buildRootFolder, "bin/php-cgi"), "/bin/php-cgi");
-                    zip(executableTarget, new File(buildRootFolder, "modules"), "/modules");
-                    executableTarget.flush();
-                    executableTarget.close();
+                    final NarArchiver executableTarget = newArchiver();
+                    zip(executableTarget, php, "/bin/php");
+                    zip(executableTarget, phpCgi, "/bin/php-cgi");
+                    zip(executableTarget, modules, "/modules");
+                    writeNar(executableTarget, executableNarFile);
                     this.projectHelper.attachArtifact(this.project, "nar", item.getClassifier(), executableNarFile);
+                    this.writeCompanion(executableTarget, executableNarFile, item.getClassifier());
                     
                     // developer pack
                     final File developerNarFile = new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + "-" + item.getClassifier() + "-devel.nar");
-                    if (developerNarFile.exists()) {
-                        developerNarFile.delete();
-                    }
-                    final ZipOutputStream developerTarget = new ZipOutputStream(new FileOutputStream(developerNarFile));
+                    final NarArchiver developerTarget = newArchiver();
                     if (!new File(buildRootFolder, "lib/libphp5.so").exists() && !new File(buildRootFolder, "include").exists()) {
                         throw new MojoFailureException("library lib/libphp5.so not built or include folder not found. Ensure you used --enable-embed=shared if you overwrite the configure options.");
                     }
                     zipFilterFile(developerTarget, new File(buildRootFolder, "bin/php-config"), "/bin/php-config", buildRootFolder.getAbsolutePath(), "${MAVEN.INSTALL.ROOT}");
                     zipFilterFile(developerTarget, new File(buildRootFolder, "bin/phpize"), "/bin/phpize", buildRootFolder.getAbsolutePath(), "${MAVEN.INSTALL.ROOT}");
-                    zip(developerTarget, new File(buildRootFolder, "lib/libphp5.so"), "/lib/libphp5.so");
+                    zip(developerTarget, libphp, "/lib/libphp5.so");
                     zip(developerTarget, new File(buildRootFolder, "include"), "/include");
-                    developerTarget.flush();
-                    developerTarget.close();
+                    writeNar(developerTarget, developerNarFile);
                     this.projectHelper.attachArtifact(this.project, "nar", item.getClassifier() + "-devel", developerNarFile);
+                    this.writeCompanion(developerTarget, developerNarFile, item.getClassifier() + "-devel");
+                    
+                    // extension profiles
+                    for (final ExtensionProfile profile : this.extensionProfiles) {
+                        final String modulesPath = "profiles/" + profile.getName() + "/modules";
+                        if (!new File(buildRootFolder, modulesPath).isDirectory()) {
+                            throw new MojoFailureException("modules of extension profile " + profile.getName() + " not found. Possible build failure.");
+                        }
+                        final File profileNarFile = new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + "-" + item.getClassifier() + "-" + profile.getName() + ".nar");
+                        final NarArchiver profileTarget = newArchiver();
+                        zip(profileTarget, binary(splitter, buildRootFolder, modulesPath), "/modules");
+                        writeNar(profileTarget, profileNarFile);
+                        this.projectHelper.attachArtifact(this.project, "nar", item.getClassifier() + "-" + profile.getName(), profileNarFile);
+                        this.writeCompanion(profileTarget, profileNarFile, item.getClassifier() + "-" + profile.getName());
+                    }
+                    
+                    // debug info of the stripped binaries
+                    if (splitter != null) {
+                        final File debugNarFile = new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + "-" + item.getClassifier() + "-debug.nar");
+                        final NarArchiver debugTarget = newArchiver();
+                        for (final Map.Entry<String, File> entry : splitter.getDebugFiles().entrySet()) {
+                            debugTarget.addFile(entry.getValue(), entry.getKey());
+                        }
+                        writeNar(debugTarget, debugNarFile);
+                        this.projectHelper.attachArtifact(this.project, "nar", item.getClassifier() + "-debug", debugNarFile);
+                        this.writeCompanion(debugTarget, debugNarFile, item.getClassifier() + "-debug");
+                    }
                 }
             } catch (IOException ex) {
                 throw new MojoFailureException("Error copying/creating nar files", ex);
@@ -187,7 +292,87 @@ public class PackageMojo extends AbstractNarMojo {
         this.projectHelper.attachArtifact(this.project, "jar", "jar", new File(packageFolder, this.project.getArtifactId() + "-" + this.project.getVersion() + ".jar"));
     }
 
-    private void zipExtDepsJs(ZipOutputStream zos, File file, String string) throws IOException {
+    /**
+     * Creates a new archiver
+     * @return archiver
+     * @throws MojoExecutionException thrown if SOURCE_DATE_EPOCH is invalid
+     */
+    private NarArchiver newArchiver() throws MojoExecutionException {
+        final NarArchiver archiver = new NarArchiver(this.executor, this.threads, this.compressionLevel);
+        if (this.reproducible) {
+            long epoch = 315532800L;
+            if (this.sourceDateEpoch != null) {
+                epoch = this.sourceDateEpoch;
+            } else if (System.getenv("SOURCE_DATE_EPOCH") != null) {
+                try {
+                    epoch = Long.parseLong(System.getenv("SOURCE_DATE_EPOCH").trim());
+                } catch (NumberFormatException ex) {
+                    throw new MojoExecutionException("Invalid SOURCE_DATE_EPOCH " + System.getenv("SOURCE_DATE_EPOCH"), ex);
+                }
+            }
+            archiver.setReproducible(epoch * 1000);
+        }
+        return archiver;
+    }
+
+    /**
+     * Writes a nar file (unless its inputs did not change) and reports time and size
+     * @param archiver the archiver
+     * @param narFile the nar file
+     * @throws IOException
+     */
+    private void writeNar(NarArchiver archiver, File narFile) throws IOException {
+        final long start = System.currentTimeMillis();
+        final BuildTimings.Phase phase = this.timings.start(null, narFile.getName());
+        final boolean written = archiver.writeIfChanged(narFile);
+        phase.stop();
+        if (!written) {
+            getLog().info(narFile.getName() + " is up to date");
+            return;
+        }
+        final long time = System.currentTimeMillis() - start;
+        getLog().info("Packaged " + narFile.getName() + ": " + archiver.getEntryCount() + " entries (" + archiver.getStoredCount() + " stored), " +
+            (archiver.getSize() / 1024) + " KB -> " + (narFile.length() / 1024) + " KB in " + time + " ms");
+    }
+
+    /**
+     * Writes and attaches the companion archive of a nar file (if enabled)
+     * @param archiver the archiver holding the nar entries
+     * @param narFile the nar file
+     * @param classifier the classifier
+     * @throws IOException
+     */
+    private void writeCompanion(NarArchiver archiver, File narFile, String classifier) throws IOException {
+        if ("none".equals(this.companionFormat)) {
+            return;
+        }
+        final File companionFile = new File(narFile.getPath().substring(0, narFile.getPath().length() - ".nar".length()) + "." + this.companionFormat);
+        final long start = System.currentTimeMillis();
+        final BuildTimings.Phase phase = this.timings.start(null, companionFile.getName());
+        final boolean written = archiver.writeTarIfChanged(companionFile, this.companionFormat, this.companionLevel);
+        phase.stop();
+        if (written) {
+            getLog().info("Packaged " + companionFile.getName() + ": " + (companionFile.length() / 1024) + " KB in " + (System.currentTimeMillis() - start) + " ms");
+        } else {
+            getLog().info(companionFile.getName() + " is up to date");
+        }
+        this.projectHelper.attachArtifact(this.project, this.companionFormat, classifier, companionFile);
+    }
+
+    /**
+     * Returns a binary of the install folder; the stripped copy if binaries are stripped
+     * @param splitter the debug splitter or null if binaries are not stripped
+     * @param buildRootFolder the install folder
+     * @param path the path of the binary (or folder) relative to the install folder
+     * @return file or folder to be packaged
+     * @throws IOException
+     */
+    private File binary(DebugSplitter splitter, File buildRootFolder, String path) throws IOException {
+        final File file = new File(buildRootFolder, path);
+        return splitter == null ? file : splitter.strip(file, path);
+    }
+
+    private void zipExtDepsJs(NarArchiver zos, File file, String string) throws IOException {
         if (file.exists()) {
             zip(zos, file, string);
         } else {
@@ -196,15 +381,11 @@ public class PackageMojo extends AbstractNarMojo {
             final StringWriter writer = new StringWriter(); 
             IOUtils.copy(PackageMojo.class.getResourceAsStream("php5.3.x/ext_deps.js"), writer, "UTF-8"); 
             String contents = writer.toString();
-            final ZipEntry entry = new ZipEntry(string.substring(1));
-            entry.setTime(file.lastModified());
-            zos.putNextEntry(entry);
-            zos.write(contents.getBytes());
-            zos.closeEntry();
+            zos.addBytes(string.substring(1), contents.getBytes(), file.lastModified());
         }
     }
 
-    private void zipPhpizeJs(ZipOutputStream zos, File file, String string) throws IOException {
+    private void zipPhpizeJs(NarArchiver zos, File file, String string) throws IOException {
         if (file.exists()) {
             zip(zos, file, string);
         } else {
@@ -213,15 +394,11 @@ public class PackageMojo extends AbstractNarMojo {
             IOUtils.copy(PackageMojo.class.getResourceAsStream("php5.3.x/phpize.js"), writer, "UTF-8"); 
             String contents = writer.toString(); 
             contents = contents.replace("${PHP_RELEASE_VERSION}", this.project.getVersion().split("\\.")[2]);
-            final ZipEntry entry = new ZipEntry(string.substring(1));
-            entry.setTime(file.lastModified());
-            zos.putNextEntry(entry);
-            zos.write(contents.getBytes());
-            zos.closeEntry();
+            zos.addBytes(string.substring(1), contents.getBytes(), file.lastModified());
         }
     }
 
-    private void zipConfigPhpizeJs(ZipOutputStream zos, File file, String string) throws IOException {
+    private void zipConfigPhpizeJs(NarArchiver zos, File file, String string) throws IOException {
         if (file.exists()) {
             zip(zos, file, string);
         } else {
@@ -229,15 +406,11 @@ public class PackageMojo extends AbstractNarMojo {
             final StringWriter writer = new StringWriter(); 
             IOUtils.copy(PackageMojo.class.getResourceAsStream("php5.3.x/config.phpize.js"), writer, "UTF-8"); 
             String contents = writer.toString(); 
-            final ZipEntry entry = new ZipEntry(string.substring(1));
-            entry.setTime(file.lastModified());
-            zos.putNextEntry(entry);
-            zos.write(contents.getBytes());
-            zos.closeEntry();
+            zos.addBytes(string.substring(1), contents.getBytes(), file.lastModified());
         }
     }
 
-    private void zipPhpizeBat(ZipOutputStream zos, File file, String string) throws IOException {
+    private void zipPhpizeBat(NarArchiver zos, File file, String string) throws IOException {
         if (file.exists()) {
             zip(zos, file, string);
         } else {
@@ -245,15 +418,11 @@ public class PackageMojo extends AbstractNarMojo {
             final StringWriter writer = new StringWriter(); 
             IOUtils.copy(PackageMojo.class.getResourceAsStream("php5.3.x/phpize.bat"), writer, "UTF-8"); 
             String contents = writer.toString(); 
-            final ZipEntry entry = new ZipEntry(string.substring(1));
-            entry.setTime(file.lastModified());
-            zos.putNextEntry(entry);
-            zos.write(contents.getBytes());
-            zos.closeEntry();
+            zos.addBytes(string.substring(1), contents.getBytes(), file.lastModified());
         }
     }
 
-    private void zipMakefilePhpize(ZipOutputStream zos, File file, String string) throws IOException {
+    private void zipMakefilePhpize(NarArchiver zos, File file, String string) throws IOException {
         if (file.exists()) {
             zip(zos, file, string);
         } else {
@@ -261,15 +430,11 @@ public class PackageMojo extends AbstractNarMojo {
             final StringWriter writer = new StringWriter(); 
             IOUtils.copy(PackageMojo.class.getResourceAsStream("php5.3.x/Makefile.phpize"), writer, "UTF-8"); 
             String contents = writer.toString();
-            final ZipEntry entry = new ZipEntry(string.substring(1));
-            entry.setTime(file.lastModified());
-            zos.putNextEntry(entry);
-            zos.write(contents.getBytes());
-            zos.closeEntry();
+            zos.addBytes(string.substring(1), contents.getBytes(), file.lastModified());
         }
     }
 
-    private void zipConfigW32PhpizeIn(ZipOutputStream zos, File file, String string) throws IOException {
+    private void zipConfigW32PhpizeIn(NarArchiver zos, File file, String string) throws IOException {
         if (file.exists()) {
             zip(zos, file, string);
         } else {
@@ -277,15 +442,11 @@ public class PackageMojo extends AbstractNarMojo {
             final StringWriter writer = new StringWriter(); 
             IOUtils.copy(PackageMojo.class.getResourceAsStream("php5.3.x/config.w32.phpize.in"), writer, "UTF-8"); 
             String contents = writer.toString();
-            final ZipEntry entry = new ZipEntry(string.substring(1));
-            entry.setTime(file.lastModified());
-            zos.putNextEntry(entry);
-            zos.write(contents.getBytes());
-            zos.closeEntry();
+            zos.addBytes(string.substring(1), contents.getBytes(), file.lastModified());
         }
     }
 
-    private void zipHeaders(ZipOutputStream zos, File dir, String prefix) throws IOException {
+    void zipHeaders(NarArchiver zos, File dir, String prefix) throws IOException {
         for (final File file : dir.listFiles()) {
             if (file.getName().endsWith(".h")) {
                 zip(zos, file, prefix + "/" + file.getName());
@@ -293,65 +454,36 @@ public class PackageMojo extends AbstractNarMojo {
         }
     }
 
-    private void zipFilterFile(ZipOutputStream target, File file, String pathNameInFile, String filterFrom, String filterTo) throws IOException {
+    void zipFilterFile(NarArchiver target, File file, String pathNameInFile, String filterFrom, String filterTo) throws IOException {
         if (!file.exists()) return;
         final String contents = FileUtils.fileRead(file).replace(filterFrom, filterTo);
-        final ZipEntry entry = new ZipEntry(pathNameInFile.substring(1));
-        entry.setTime(file.lastModified());
-        target.putNextEntry(entry);
-        target.write(contents.getBytes());
-        target.closeEntry();
+        target.addBytes(pathNameInFile.substring(1), contents.getBytes(), file.lastModified(), file.canExecute());
     }
 
-    private void zip(ZipOutputStream target, File sourceFile, String pathNameInFile) throws IOException
+    void zip(NarArchiver target, File sourceFile, String pathNameInFile) throws IOException
     {
         if (sourceFile.exists()) {
             add(sourceFile.getAbsolutePath().length(), sourceFile.getAbsoluteFile(), target, pathNameInFile);
         }
     }
     
-    private void add(int relLength, File source, ZipOutputStream target, String prepend) throws IOException
+    private void add(int relLength, File source, NarArchiver target, String prepend) throws IOException
     {
-        BufferedInputStream in = null;
-        try
+        if (source.isDirectory())
         {
-            if (source.isDirectory())
+            String name = source.getPath().substring(relLength).replace("\\", "/");
+            if (!name.isEmpty())
             {
-                String name = source.getPath().substring(relLength).replace("\\", "/");
-                if (!name.isEmpty())
-                {
-                    if (!name.endsWith("/"))
-                        name += "/";
-                    ZipEntry entry = new ZipEntry(prepend + name);
-                    entry.setTime(source.lastModified());
-                    target.putNextEntry(entry);
-                    target.closeEntry();
-                }
-                for (File nestedFile: source.listFiles())
-                    add(relLength, nestedFile, target, prepend);
-                return;
+                if (!name.endsWith("/"))
+                    name += "/";
+                target.addDirectory(prepend + name, source.lastModified());
             }
-            
-            ZipEntry entry = new ZipEntry(prepend.substring(1) + source.getPath().substring(relLength).replace("\\", "/"));
-            entry.setTime(source.lastModified());
-            target.putNextEntry(entry);
-            in = new BufferedInputStream(new FileInputStream(source));
-            
-            byte[] buffer = new byte[1024];
-            while (true)
-            {
-                int count = in.read(buffer);
-                if (count == -1)
-                    break;
-                target.write(buffer, 0, count);
-            }
-            target.closeEntry(); 
-        } 
-        finally 
-        { 
-            if (in != null) 
-                in.close(); 
-        } 
+            for (File nestedFile: source.listFiles())
+                add(relLength, nestedFile, target, prepend);
+            return;
+        }
+        
+        target.addFile(source, prepend.substring(1) + source.getPath().substring(relLength).replace("\\", "/"));
     }
     
 }
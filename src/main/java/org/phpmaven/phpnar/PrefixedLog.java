@@ -0,0 +1,128 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A logger prefixing every message (used to keep the output of concurrent aol builds apart)
+ */
+class PrefixedLog implements Log {
+
+    /**
+     * The underlying logger
+     */
+    private final Log delegate;
+
+    /**
+     * The prefix
+     */
+    private final String prefix;
+
+    /**
+     * Constructor
+     * @param delegate the underlying logger
+     * @param prefix the prefix (f.e. the aol key)
+     */
+    public PrefixedLog(Log delegate, String prefix) {
+        this.delegate = delegate;
+        this.prefix = "[" + prefix + "] ";
+    }
+
+    private CharSequence prefix(CharSequence content) {
+        return content == null ? this.prefix : this.prefix + content;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return this.delegate.isDebugEnabled();
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+        this.delegate.debug(prefix(content));
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+        this.delegate.debug(prefix(content), error);
+    }
+
+    @Override
+    public void debug(Throwable error) {
+        this.delegate.debug(this.prefix, error);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return this.delegate.isInfoEnabled();
+    }
+
+    @Override
+    public void info(CharSequence content) {
+        this.delegate.info(prefix(content));
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+        this.delegate.info(prefix(content), error);
+    }
+
+    @Override
+    public void info(Throwable error) {
+        this.delegate.info(this.prefix, error);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return this.delegate.isWarnEnabled();
+    }
+
+    @Override
+    public void warn(CharSequence content) {
+        this.delegate.warn(prefix(content));
+    }
+
+    @Override
+    public void warn(CharSequence content, Throwable error) {
+        this.delegate.warn(prefix(content), error);
+    }
+
+    @Override
+    public void warn(Throwable error) {
+        this.delegate.warn(this.prefix, error);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return this.delegate.isErrorEnabled();
+    }
+
+    @Override
+    public void error(CharSequence content) {
+        this.delegate.error(prefix(content));
+    }
+
+    @Override
+    public void error(CharSequence content, Throwable error) {
+        this.delegate.error(prefix(content), error);
+    }
+
+    @Override
+    public void error(Throwable error) {
+        this.delegate.error(this.prefix, error);
+    }
+
+}
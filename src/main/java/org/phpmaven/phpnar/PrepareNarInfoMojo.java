@@ -22,12 +22,14 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.nar.Library;
 import org.apache.maven.plugin.nar.NarConstants;
 import org.apache.maven.plugin.nar.NarInfo;
+import org.codehaus.plexus.util.FileUtils;
 
 /**
  * Prepares the nar info for given project
  * 
  * @author mepeisen
  * @goal prepare-nar-info
+ * @threadSafe
  */
 public class PrepareNarInfoMojo extends AbstractNarMojo {
 
@@ -59,6 +61,20 @@ public class PrepareNarInfoMojo extends AbstractNarMojo {
                 info.setNar(item.getAol(),
                         "deps", project.getGroupId() + ":" + project.getArtifactId() + ":"
                         + NarConstants.NAR_TYPE + ":" + "${aol}" + "-deps");
+            } else {
+                if (this.stripBinaries && "Linux".equalsIgnoreCase(item.getEffectiveOs())) {
+                    // debug info of the stripped binaries
+                    info.setNar(item.getAol(),
+                            "debug", project.getGroupId() + ":" + project.getArtifactId() + ":"
+                            + NarConstants.NAR_TYPE + ":" + "${aol}" + "-debug");
+                }
+                // shared modules of the extension profiles
+                for (final ExtensionProfile profile : this.extensionProfiles) {
+                    profile.check();
+                    info.setNar(item.getAol(),
+                            "profile-" + profile.getName(), project.getGroupId() + ":" + project.getArtifactId() + ":"
+                            + NarConstants.NAR_TYPE + ":" + "${aol}" + "-" + profile.getName());
+                }
             }
 //            // tests
 //            info.setNar(item.getAol(),
@@ -78,6 +94,18 @@ public class PrepareNarInfoMojo extends AbstractNarMojo {
             }
             File propertiesFile = new File( propertiesDir, NarInfo.NAR_PROPERTIES );
             getNarInfo().writeToFile( propertiesFile );
+            
+            // the optimization profiles are not known to the nar info; consumers read them as <aol>.optimization,
+            // keyed by the dotted aol like the nar info entries and the <aol>.optimization.<name> keys of aol.properties
+            final StringBuilder optimizations = new StringBuilder();
+            for (final AolItem item : this.origAolItems) {
+                if (this.getOptimization(item) != null && !"Windows".equalsIgnoreCase(item.getEffectiveOs())) {
+                    optimizations.append(item.getAol().getKey()).append(".optimization=").append(this.getOptimization(item)).append('\n');
+                }
+            }
+            if (optimizations.length() > 0) {
+                FileUtils.fileAppend( propertiesFile.getAbsolutePath(), "ISO-8859-1", optimizations.toString() );
+            }
         }
         catch ( IOException ioe )
         {
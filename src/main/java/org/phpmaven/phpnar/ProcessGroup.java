@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * The process group of an *ix build script.
+ * <p>
+ * Killing the build script only stops bash; make and the compilers it started keep running. The script is
+ * therefore started through setsid (in a new process group) and writes its process id, the id of the group,
+ * to a file. {@link #kill()} sends SIGTERM to the whole group. The group no longer receives the ctrl-c of the
+ * terminal, so a shutdown hook kills it if maven exits while the script is running.
+ * </p>
+ */
+final class ProcessGroup {
+
+    /**
+     * The file (in the working directory of the script) receiving the process group id
+     */
+    private static final String FILE = ".phpmaven-pgid";
+
+    /**
+     * True if setsid was found on the path (null if not checked yet)
+     */
+    private static volatile Boolean supported;
+
+    /**
+     * The logger
+     */
+    private final Log log;
+
+    /**
+     * The file receiving the process group id
+     */
+    private final File file;
+
+    /**
+     * The shutdown hook killing the group
+     */
+    private final Thread hook;
+
+    /**
+     * Constructor
+     * @param log the logger
+     * @param workDir the working directory of the build script
+     */
+    public ProcessGroup(Log log, File workDir) {
+        this.log = log;
+        this.file = new File(workDir, FILE);
+        this.hook = new Thread("phpnar-kill-" + workDir.getName()) {
+            @Override
+            public void run() {
+                ProcessGroup.this.kill();
+            }
+        };
+    }
+
+    /**
+     * Checks if build scripts can run in their own process group (setsid is available)
+     * @return true if process groups are supported
+     */
+    public static boolean isSupported() {
+        if (supported == null) {
+            supported = CompilerCache.findOnPath("setsid") != null;
+        }
+        return supported;
+    }
+
+    /**
+     * Returns the script line recording the process group id; must be the first line of the script.
+     * @return script line
+     */
+    public static String getScriptPrelude() {
+        return "echo $$ > " + FILE + "\n";
+    }
+
+    /**
+     * Returns the command starting a script in a new process group
+     * @param command the command
+     * @return command line
+     */
+    public String wrap(String command) {
+        return "setsid " + command;
+    }
+
+    /**
+     * Registers the group before the script is started.
+     */
+    public void start() {
+        this.file.delete();
+        Runtime.getRuntime().addShutdownHook(this.hook);
+    }
+
+    /**
+     * Unregisters the group after the script terminated.
+     */
+    public void stop() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(this.hook);
+        } catch (IllegalStateException ex) {
+            // maven is shutting down; the hook is running
+        }
+        this.file.delete();
+    }
+
+    /**
+     * Sends SIGTERM to all processes of the group; does nothing if the script did not record its group yet.
+     */
+    public void kill() {
+        final String pgid;
+        try {
+            pgid = this.file.isFile() ? FileUtils.fileRead(this.file, "US-ASCII").trim() : "";
+        } catch (IOException ex) {
+            return;
+        }
+        if (!pgid.matches("[0-9]+")) {
+            return;
+        }
+        this.log.debug("Killing process group " + pgid);
+        try {
+            // executed without shell; a negative pid addresses the whole process group
+            final Process process = new ProcessBuilder("kill", "-TERM", "--", "-" + pgid).redirectErrorStream(true).start();
+            process.getInputStream().close();
+            process.waitFor();
+        } catch (IOException ex) {
+            this.log.warn("Unable to kill process group " + pgid, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,588 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
+import org.codehaus.plexus.util.cli.Commandline;
+
+/**
+ * Incremental staging of a source tree into a working directory.
+ * <p>
+ * A manifest (path, size, modification time and optional content hash) of the staged files is persisted
+ * next to the working directory. Only new and changed files are copied; files that were removed from the
+ * sources are deleted from the working directory (together with the directories that become empty). The
+ * source tree is walked in parallel.
+ * </p>
+ * <p>
+ * The manifest records the placement strategy and the private file patterns; if they change all files are
+ * placed again, so no link into the original sources survives a switch to private copies.
+ * </p>
+ * <p>
+ * Files are placed by one of the strategies reflink (copy-on-write clone), hardlink, symlink or copy.
+ * The strategy "auto" tries them in this order and falls back as soon as one is not supported by the
+ * file system. Files the build rewrites in place (see {@link #DEFAULT_PRIVATE_FILES}) and files generated from
+ * parser/scanner sources are always staged as private copies so that the build never writes through a link
+ * into the original sources.
+ * </p>
+ */
+final class SourceStager {
+
+    /**
+     * Charset of the manifest file
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Marker for manifest entries without content hash
+     */
+    private static final String NO_HASH = "-";
+
+    /**
+     * Prefix of the manifest header line
+     */
+    private static final String HEADER = "#";
+
+    /**
+     * Files that are rewritten in place during the build
+     */
+    public static final String[] DEFAULT_PRIVATE_FILES = {
+        "configure", "aclocal.m4", "generated_lists", "buildconf", "config.guess", "config.sub",
+        "build/**", "main/php_config.h*", "main/build-defs.h*", "**/*.tab.c", "**/*.tab.h"
+    };
+
+    /**
+     * Placement strategies in fallback order
+     */
+    private static final String[] STRATEGIES = {"reflink", "hardlink", "symlink", "copy"};
+
+    /**
+     * Number of files passed to a single "cp --reflink" invocation
+     */
+    private static final int REFLINK_BATCH = 200;
+
+    /**
+     * The number of threads
+     */
+    private final int threads;
+
+    /**
+     * The logger
+     */
+    private final Log log;
+
+    /**
+     * The placement strategies still to be used (in fallback order)
+     */
+    private final List<String> strategies = new CopyOnWriteArrayList<String>();
+
+    /**
+     * Patterns of files that are always staged as private copies
+     */
+    private final List<String> privateFiles;
+
+    /**
+     * Files waiting to be cloned by reflink (relative paths)
+     */
+    private final Queue<String> reflinkQueue = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * True to compare content hashes of files whose size or modification time changed
+     */
+    private final boolean hashContents;
+
+    /**
+     * Number of copied files
+     */
+    private final AtomicInteger copied = new AtomicInteger();
+
+    /**
+     * Number of unchanged files
+     */
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * The manifest header (configured strategy and private file patterns)
+     */
+    private final String header;
+
+    /**
+     * True if all files are placed again because the manifest header changed
+     */
+    private volatile boolean restage;
+
+    /**
+     * Number of deleted files
+     */
+    private int deleted;
+
+    /**
+     * Number of spawned processes
+     */
+    private int processes;
+
+    /**
+     * Constructor
+     * @param log the logger
+     * @param threads the number of threads used to walk and copy the sources
+     * @param hashContents true to compare content hashes before copying files with changed size or modification time
+     * @param strategy the placement strategy ("auto", "reflink", "hardlink", "symlink" or "copy")
+     * @param privateFiles patterns of files that are always staged as private copies
+     */
+    public SourceStager(Log log, int threads, boolean hashContents, String strategy, List<String> privateFiles) {
+        this.log = log;
+        this.threads = threads;
+        this.hashContents = hashContents;
+        this.privateFiles = privateFiles;
+        final List<String> chain = Arrays.asList(STRATEGIES);
+        if ("auto".equals(strategy)) {
+            this.strategies.addAll(chain);
+        } else if (chain.contains(strategy)) {
+            // the configured strategy falls back to a plain copy
+            this.strategies.add(strategy);
+            if (!"copy".equals(strategy)) {
+                this.strategies.add("copy");
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown staging strategy " + strategy);
+        }
+        final StringBuilder line = new StringBuilder(HEADER).append(" strategy=").append(strategy).append(" private=");
+        for (final String pattern : privateFiles) {
+            line.append(pattern).append(',');
+        }
+        this.header = line.toString();
+    }
+
+    /**
+     * Stages the sources.
+     * @param source the source directory
+     * @param target the working directory
+     * @param manifestFile the manifest file
+     * @throws IOException thrown on copy errors
+     */
+    public void stage(final Path source, final Path target, File manifestFile) throws IOException {
+        final Map<String, ManifestEntry> oldManifest = this.readManifest(manifestFile);
+        if (this.restage) {
+            this.log.info("Staging strategy or private files changed; staging all files again");
+        }
+        final Map<String, ManifestEntry> newManifest = new ConcurrentHashMap<String, ManifestEntry>();
+
+        final ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            pool.invoke(new DirectoryTask(source, source, target, oldManifest, newManifest));
+        } catch (StagingException ex) {
+            throw ex.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        this.flushReflinks(source, target);
+
+        for (final String path : oldManifest.keySet()) {
+            if (!newManifest.containsKey(path)) {
+                final Path file = target.resolve(path);
+                Files.deleteIfExists(file);
+                this.deleted++;
+                deleteEmptyParents(target, file);
+            }
+        }
+
+        writeManifest(manifestFile, newManifest);
+    }
+
+    public int getCopied() {
+        return this.copied.get();
+    }
+
+    public int getSkipped() {
+        return this.skipped.get();
+    }
+
+    public int getDeleted() {
+        return this.deleted;
+    }
+
+    public int getProcesses() {
+        return this.processes;
+    }
+
+    /**
+     * Stages a single file.
+     * @param file the source file
+     * @param attrs the source file attributes
+     * @param path the relative path
+     * @param target the target file
+     * @param old the old manifest entry or null
+     * @return new manifest entry
+     * @throws IOException thrown on copy errors
+     */
+    private ManifestEntry stageFile(Path file, BasicFileAttributes attrs, String path, Path target, ManifestEntry old) throws IOException {
+        final long size = attrs.size();
+        final long modified = attrs.lastModifiedTime().toMillis();
+        final boolean exists = Files.exists(target, LinkOption.NOFOLLOW_LINKS);
+        if (old != null && exists && old.size == size && old.modified == modified) {
+            this.skipped.incrementAndGet();
+            return old;
+        }
+
+        String hash = NO_HASH;
+        if (this.hashContents) {
+            hash = hash(file);
+            if (old != null && exists && old.size == size && hash.equals(old.hash)) {
+                // only touched
+                this.skipped.incrementAndGet();
+                return new ManifestEntry(size, modified, hash);
+            }
+        }
+
+        Files.createDirectories(target.getParent());
+        // never write through an old link into the sources
+        Files.deleteIfExists(target);
+        this.place(file, target, path);
+        this.copied.incrementAndGet();
+        return new ManifestEntry(size, modified, hash);
+    }
+
+    /**
+     * Places a file in the working directory by the first working strategy.
+     * @param file the source file
+     * @param target the target file
+     * @param path the relative path
+     * @throws IOException thrown on copy errors
+     */
+    private void place(Path file, Path target, String path) throws IOException {
+        if (this.isPrivate(file, path)) {
+            Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+            return;
+        }
+        for (final String strategy : this.strategies) {
+            try {
+                if ("reflink".equals(strategy)) {
+                    // cloned in batches after the walk
+                    this.reflinkQueue.add(path);
+                } else if ("hardlink".equals(strategy)) {
+                    Files.createLink(target, file);
+                } else if ("symlink".equals(strategy)) {
+                    Files.createSymbolicLink(target, file.toAbsolutePath());
+                } else {
+                    Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return;
+            } catch (IOException ex) {
+                this.disable(strategy, ex);
+            } catch (UnsupportedOperationException ex) {
+                this.disable(strategy, ex);
+            }
+        }
+        throw new IOException("Unable to stage " + file);
+    }
+
+    /**
+     * Disables a strategy that is not supported by the file system.
+     * @param strategy the strategy
+     * @param cause the failure
+     */
+    private void disable(String strategy, Exception cause) {
+        if (this.strategies.remove(strategy)) {
+            this.log.info("Staging strategy " + strategy + " not supported (" + cause.getMessage() + "); falling back");
+        }
+    }
+
+    /**
+     * Clones the queued files by "cp --reflink=always"; on failure the remaining files fall back to the next strategy.
+     * @param source the source directory
+     * @param target the working directory
+     * @throws IOException thrown on copy errors
+     */
+    private void flushReflinks(Path source, Path target) throws IOException {
+        final List<String> batch = new ArrayList<String>();
+        while (!this.reflinkQueue.isEmpty()) {
+            batch.clear();
+            while (batch.size() < REFLINK_BATCH && !this.reflinkQueue.isEmpty()) {
+                batch.add(this.reflinkQueue.poll());
+            }
+            if (this.strategies.contains("reflink")) {
+                final Commandline cli = new Commandline();
+                cli.setExecutable("cp");
+                cli.setWorkingDirectory(source.toFile());
+                cli.addArguments(new String[]{"--reflink=always", "--preserve=mode,timestamps", "--parents", "-t", target.toAbsolutePath().toString()});
+                cli.addArguments(batch.toArray(new String[batch.size()]));
+                final CommandLineUtils.StringStreamConsumer err = new CommandLineUtils.StringStreamConsumer();
+                this.processes++;
+                try {
+                    if (CommandLineUtils.executeCommandLine(cli, new CommandLineUtils.StringStreamConsumer(), err) == 0) {
+                        continue;
+                    }
+                    this.disable("reflink", new IOException(err.getOutput().trim()));
+                } catch (CommandLineException ex) {
+                    this.disable("reflink", ex);
+                }
+            }
+            for (final String path : batch) {
+                final Path file = target.resolve(path);
+                Files.deleteIfExists(file);
+                this.place(source.resolve(path), file, path);
+            }
+        }
+    }
+
+    /**
+     * Checks if a file must be staged as a private copy.
+     * @param file the source file
+     * @param path the relative path
+     * @return true for private copies
+     */
+    private boolean isPrivate(Path file, String path) {
+        for (final String pattern : this.privateFiles) {
+            if (SelectorUtils.matchPath(pattern.replace('/', File.separatorChar), path.replace('/', File.separatorChar))) {
+                return true;
+            }
+        }
+        // files generated from parser and scanner sources (f.e. zend_language_parser.c from zend_language_parser.y)
+        final String name = file.getFileName().toString();
+        if (name.endsWith(".c") || name.endsWith(".h")) {
+            String base = name.substring(0, name.length() - 2);
+            if (base.endsWith(".tab")) {
+                base = base.substring(0, base.length() - 4);
+            }
+            for (final String ext : new String[]{".y", ".re", ".l"}) {
+                if (Files.exists(file.resolveSibling(base + ext))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String hash(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final byte[] buffer = new byte[65536];
+        final InputStream in = Files.newInputStream(file);
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        final StringBuilder result = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            result.append(String.format("%02x", b & 0xff));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Deletes the parent directories of a deleted file as long as they are empty.
+     * @param target the working directory (never deleted)
+     * @param file the deleted file
+     * @throws IOException thrown on io errors
+     */
+    private static void deleteEmptyParents(Path target, Path file) throws IOException {
+        Path dir = file.getParent();
+        while (dir != null && !dir.equals(target) && dir.startsWith(target) && Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+            final boolean empty;
+            try {
+                empty = !stream.iterator().hasNext();
+            } finally {
+                stream.close();
+            }
+            if (!empty) {
+                return;
+            }
+            Files.delete(dir);
+            dir = dir.getParent();
+        }
+    }
+
+    /**
+     * Reads the manifest; sets {@link #restage} if the manifest was written with another header.
+     * @param manifestFile the manifest file
+     * @return manifest entries by relative path
+     * @throws IOException thrown on read errors
+     */
+    private Map<String, ManifestEntry> readManifest(File manifestFile) throws IOException {
+        final Map<String, ManifestEntry> result = new TreeMap<String, ManifestEntry>();
+        this.restage = false;
+        if (!manifestFile.exists()) {
+            return result;
+        }
+        final BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), UTF8);
+        try {
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (first) {
+                    // manifests of older versions have no header
+                    first = false;
+                    this.restage = !this.header.equals(line);
+                    if (line.startsWith(HEADER)) {
+                        continue;
+                    }
+                }
+                final String[] parts = line.split("\t", 4);
+                if (parts.length == 4) {
+                    result.put(parts[3], new ManifestEntry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                }
+            }
+        } catch (NumberFormatException ex) {
+            // broken manifest; stage everything
+            result.clear();
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    private void writeManifest(File manifestFile, Map<String, ManifestEntry> manifest) throws IOException {
+        manifestFile.getParentFile().mkdirs();
+        final File temp = new File(manifestFile.getPath() + ".tmp");
+        final BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), UTF8);
+        try {
+            writer.write(this.header + "\n");
+            for (final Map.Entry<String, ManifestEntry> entry : new TreeMap<String, ManifestEntry>(manifest).entrySet()) {
+                final ManifestEntry value = entry.getValue();
+                writer.write(value.size + "\t" + value.modified + "\t" + value.hash + "\t" + entry.getKey() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(temp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A single manifest entry
+     */
+    private static final class ManifestEntry {
+
+        final long size;
+
+        final long modified;
+
+        final String hash;
+
+        ManifestEntry(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+    }
+
+    /**
+     * Unchecked wrapper to pass io errors out of the fork join tasks
+     */
+    private static final class StagingException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StagingException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+
+    }
+
+    /**
+     * Stages one directory and forks a task for each sub directory.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+
+        private final Path dir;
+
+        private final Path target;
+
+        private final Map<String, ManifestEntry> oldManifest;
+
+        private final Map<String, ManifestEntry> newManifest;
+
+        DirectoryTask(Path root, Path dir, Path target, Map<String, ManifestEntry> oldManifest, Map<String, ManifestEntry> newManifest) {
+            this.root = root;
+            this.dir = dir;
+            this.target = target;
+            this.oldManifest = oldManifest;
+            this.newManifest = newManifest;
+        }
+
+        @Override
+        protected void compute() {
+            final List<DirectoryTask> subTasks = new ArrayList<DirectoryTask>();
+            try {
+                final DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir);
+                try {
+                    for (final Path file : stream) {
+                        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        if (attrs.isDirectory()) {
+                            subTasks.add(new DirectoryTask(this.root, file, this.target, this.oldManifest, this.newManifest));
+                        } else {
+                            final String path = this.root.relativize(file).toString().replace('\\', '/');
+                            this.newManifest.put(path, stageFile(file, attrs, path, this.target.resolve(path), restage ? null : this.oldManifest.get(path)));
+                        }
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException ex) {
+                throw new StagingException(ex);
+            }
+            invokeAll(subTasks);
+        }
+
+    }
+
+}
@@ -14,21 +14,430 @@
 
 package org.phpmaven.phpnar;
 
-import org.apache.maven.plugin.AbstractMojo;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 /**
- * A goal to perform the tests
- * 
+ * A goal to perform the tests.
+ * <p>
+ * Runs the phpt tests of the php sources (run-tests.php) against the compiled php of every *ix aol. The tests are
+ * distributed to several run-tests.php processes (shards) of similar size; the results are written as JUnit XML
+ * report to target/surefire-reports/TEST-php-&lt;aol&gt;.xml.
+ * </p>
+ * <p>
+ * run-tests.php does not report durations; the time of a test in the report is the interval between its result
+ * line and the previous result line of the same process, not the measured duration of the test.
+ * </p>
+ *
  * @author mepeisen
  * @goal test
+ * @threadSafe
  */
-public class TestMojo extends AbstractMojo {
+public class TestMojo extends AbstractNarMojo {
+
+    /**
+     * Source file extensions considered by the changed extensions detection
+     */
+    private static final String[] SOURCE_EXTENSIONS = {".c", ".h", ".cpp", ".y", ".re", ".l", ".phpt", ".inc", ".php"};
+
+    /**
+     * True to skip the tests
+     * @parameter expression="${skipTests}"
+     */
+    private boolean skipTests = false;
+
+    /**
+     * The number of run-tests.php processes per aol; 0 means: number of available processors
+     * @parameter expression="${phpTestThreads}"
+     */
+    private int testThreads = 0;
+
+    /**
+     * The timeout of a single test in seconds
+     * @parameter expression="${phpTestTimeout}"
+     */
+    private int testTimeout = 300;
+
+    /**
+     * True to only run the tests of the extensions whose sources changed since the last successful test run;
+     * all tests run if sources outside of ext changed
+     * @parameter expression="${changedExtensionsOnly}"
+     */
+    private boolean changedExtensionsOnly = false;
+
+    /**
+     * True to ignore test failures
+     * @parameter expression="${maven.test.failure.ignore}"
+     */
+    private boolean testFailureIgnore = false;
+
+    /**
+     * The JUnit report directory
+     * @parameter default-value="${project.build.directory}/surefire-reports"
+     */
+    private File reportsDirectory;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        getLog().warn("testing not yet supported");
+        super.execute();
+
+        if (this.skipTests) {
+            getLog().info("Tests are skipped.");
+            return;
+        }
+
+        final BuildTimings timings = new BuildTimings("test");
+        try {
+            int failures = 0;
+            for (final AolItem item : this.aolItems) {
+                item.check(getLog(), this.project);
+                if ("Windows".equalsIgnoreCase(item.getEffectiveOs())) {
+                    getLog().warn("Tests are not supported for windows builds; skipping " + item);
+                    continue;
+                }
+                final BuildTimings.Phase phase = timings.start(item.getAol().getKey(), "run-tests");
+                failures += this.test(item, timings);
+                phase.stop();
+            }
+            if (failures > 0) {
+                if (this.testFailureIgnore) {
+                    getLog().warn("There are " + failures + " test failures.");
+                } else {
+                    throw new MojoFailureException("There are " + failures + " test failures.");
+                }
+            }
+        } finally {
+            timings.report(getLog(), new File(this.project.getBuild().getDirectory()));
+        }
+    }
+
+    /**
+     * Runs the tests of an aol item
+     * @param item the aol item
+     * @param timings the timings counting the spawned processes
+     * @return number of failed tests
+     * @throws MojoFailureException
+     */
+    private int test(AolItem item, BuildTimings timings) throws MojoFailureException {
+        final File targetFolder = new File(this.project.getBuild().getDirectory() + "/" + item.getAol());
+        final File php = new File(targetFolder, "phpmaven.install/bin/php");
+        if (!php.exists()) {
+            throw new MojoFailureException("executable " + php + " not found. Possible build failure.");
+        }
+        final File stamp = new File(targetFolder, ".phpmaven-stamps/test");
+
+        List<File> tests = new ArrayList<File>();
+        collectTests(targetFolder, tests);
+        if (this.changedExtensionsOnly) {
+            tests = this.selectChangedTests(targetFolder, tests, stamp);
+        }
+        if (tests.isEmpty()) {
+            getLog().info("No tests to run for " + item);
+            return 0;
+        }
+
+        final List<List<String>> shards = createShards(targetFolder, tests,
+            this.testThreads > 0 ? this.testThreads : Runtime.getRuntime().availableProcessors());
+        getLog().info("Running " + tests.size() + " tests for " + item + " in " + shards.size() + " processes");
+
+        final TestResults results = new TestResults(item.getAol().getKey());
+        final File shardFolder = new File(targetFolder, "phpmaven.tests");
+        shardFolder.mkdirs();
+        final ExecutorService executor = Executors.newFixedThreadPool(shards.size());
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < shards.size(); i++) {
+                final File listFile = new File(shardFolder, "shard-" + i + ".list");
+                try {
+                    FileUtils.fileWrite(listFile.getAbsolutePath(), "UTF-8", join(shards.get(i)));
+                } catch (IOException ex) {
+                    throw new MojoFailureException("Error writing " + listFile, ex);
+                }
+                timings.countProcesses(1);
+                final Log log = new PrefixedLog(getLog(), item + " #" + i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        runShard(log, targetFolder, php, listFile, results);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new MojoFailureException("Error running the tests of " + item, ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoFailureException("Tests interrupted", ex);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final File report = new File(this.reportsDirectory, "TEST-php-" + item.getAol().getKey() + ".xml");
+        try {
+            results.writeJUnit(report);
+        } catch (IOException ex) {
+            throw new MojoFailureException("Error writing " + report, ex);
+        }
+        getLog().info("Tests for " + item + ": " + results.getTests() + " run, " + results.getFailures() + " failed, " + results.getSkipped() + " skipped");
+        for (final String failed : results.getFailedTests()) {
+            getLog().error(failed);
+        }
+
+        if (results.getFailures() == 0) {
+            try {
+                stamp.getParentFile().mkdirs();
+                FileUtils.fileWrite(stamp.getAbsolutePath(), "UTF-8", String.valueOf(System.currentTimeMillis()));
+            } catch (IOException ex) {
+                getLog().warn("Unable to write " + stamp, ex);
+            }
+        }
+        return results.getFailures();
     }
-    
+
+    /**
+     * Runs a single run-tests.php process
+     * @param log the logger
+     * @param targetFolder the target folder containing the sources
+     * @param php the php executable
+     * @param listFile the file listing the tests
+     * @param results the results
+     * @throws CommandLineException thrown if the process could not be started or terminated abnormally
+     */
+    private void runShard(final Log log, File targetFolder, File php, File listFile, final TestResults results) throws CommandLineException {
+        final Commandline cli = new Commandline();
+        cli.setExecutable(php.getAbsolutePath());
+        cli.setWorkingDirectory(targetFolder);
+        cli.addArguments(new String[]{
+            "run-tests.php",
+            "-p", php.getAbsolutePath(),
+            "-q",
+            "--set-timeout", String.valueOf(this.testTimeout),
+            "-r", listFile.getAbsolutePath()
+        });
+        cli.addEnvironment("NO_INTERACTION", "1");
+        cli.addEnvironment("TEST_PHP_EXECUTABLE", php.getAbsolutePath());
+        // do not inherit the setting: run-tests.php exits with 1 on failing tests, any other code is a crash
+        cli.addEnvironment("REPORT_EXIT_STATUS", "1");
+        final AtomicInteger failures = new AtomicInteger();
+        // run-tests.php prints the results to stdout; stdout and stderr are pumped by different threads
+        final StreamConsumer out = new StreamConsumer() {
+            private long last = System.nanoTime();
+
+            @Override
+            public void consumeLine(String line) {
+                final long now = System.nanoTime();
+                final String status = results.parse(line, (now - this.last) / 1e9);
+                if (status != null) {
+                    this.last = now;
+                    if (TestResults.isFailure(status)) {
+                        failures.incrementAndGet();
+                    }
+                } else {
+                    log.debug(line);
+                }
+            }
+        };
+        final StreamConsumer err = new StreamConsumer() {
+            @Override
+            public void consumeLine(String line) {
+                log.debug(line);
+            }
+        };
+        final int result = CommandLineUtils.executeCommandLine(cli, out, err);
+        if (result == 1 && failures.get() > 0) {
+            // failing tests; reported by the results
+            return;
+        }
+        if (result != 0) {
+            throw new CommandLineException("run-tests.php terminated abnormally. Return code " + result);
+        }
+    }
+
+    /**
+     * Collects the phpt files
+     * @param dir the directory
+     * @param tests the test files
+     */
+    private static void collectTests(File dir, List<File> tests) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                if (!file.getName().startsWith("phpmaven.") && !file.getName().startsWith(".")) {
+                    collectTests(file, tests);
+                }
+            } else if (file.getName().endsWith(".phpt")) {
+                tests.add(file);
+            }
+        }
+    }
+
+    /**
+     * Selects the tests of the extensions whose sources changed since the last successful test run
+     * @param targetFolder the target folder containing the sources
+     * @param tests all tests
+     * @param stamp the stamp of the last successful test run
+     * @return selected tests
+     */
+    private List<File> selectChangedTests(File targetFolder, List<File> tests, File stamp) {
+        if (!stamp.exists()) {
+            getLog().info("Running all tests: no successful test run recorded yet");
+            return tests;
+        }
+        final long timestamp = stamp.lastModified();
+        final File[] files = targetFolder.listFiles();
+        if (files == null) {
+            return tests;
+        }
+        for (final File file : files) {
+            if (file.getName().equals("ext") || file.getName().startsWith("phpmaven.") || file.getName().startsWith(".")) {
+                continue;
+            }
+            final File changed = findChangedSource(file, timestamp);
+            if (changed != null) {
+                getLog().info("Running all tests: " + changed + " changed");
+                return tests;
+            }
+        }
+
+        final Set<String> changedExtensions = new TreeSet<String>();
+        final File[] extensions = new File(targetFolder, "ext").listFiles();
+        if (extensions != null) {
+            for (final File extension : extensions) {
+                if (findChangedSource(extension, timestamp) != null) {
+                    changedExtensions.add(extension.getName());
+                }
+            }
+        }
+        getLog().info("Changed extensions: " + (changedExtensions.isEmpty() ? "none" : changedExtensions));
+
+        final String extPath = new File(targetFolder, "ext").getAbsolutePath() + File.separator;
+        final List<File> result = new ArrayList<File>();
+        for (final File test : tests) {
+            final String path = test.getAbsolutePath();
+            if (path.startsWith(extPath)) {
+                final String rel = path.substring(extPath.length());
+                final int sep = rel.indexOf(File.separatorChar);
+                if (sep > 0 && changedExtensions.contains(rel.substring(0, sep))) {
+                    result.add(test);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static File findChangedSource(File file, long timestamp) {
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files != null) {
+                for (final File child : files) {
+                    final File changed = findChangedSource(child, timestamp);
+                    if (changed != null) {
+                        return changed;
+                    }
+                }
+            }
+            return null;
+        }
+        for (final String extension : SOURCE_EXTENSIONS) {
+            if (file.getName().endsWith(extension)) {
+                return file.lastModified() > timestamp ? file : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Distributes the tests to the shards by directory (the tests of a directory often share fixtures and must
+     * not run concurrently); the biggest directories are assigned first to the shard with the least total size
+     * @param targetFolder the target folder containing the sources
+     * @param tests the tests
+     * @param threads the maximum number of shards
+     * @return test paths (relative to the target folder) per shard
+     */
+    static List<List<String>> createShards(File targetFolder, List<File> tests, int threads) {
+        final Map<File, List<File>> directories = new TreeMap<File, List<File>>();
+        final Map<File, Long> directorySizes = new HashMap<File, Long>();
+        for (final File test : tests) {
+            List<File> files = directories.get(test.getParentFile());
+            if (files == null) {
+                files = new ArrayList<File>();
+                directories.put(test.getParentFile(), files);
+                directorySizes.put(test.getParentFile(), 0L);
+            }
+            files.add(test);
+            directorySizes.put(test.getParentFile(), directorySizes.get(test.getParentFile()) + test.length());
+        }
+        final List<File> sorted = new ArrayList<File>(directories.keySet());
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                final int result = directorySizes.get(o2).compareTo(directorySizes.get(o1));
+                return result != 0 ? result : o1.compareTo(o2);
+            }
+        });
+
+        final int count = Math.max(1, Math.min(sorted.size(), threads));
+        final List<List<String>> shards = new ArrayList<List<String>>();
+        final long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<String>());
+        }
+        final int prefix = targetFolder.getAbsolutePath().length() + 1;
+        for (final File directory : sorted) {
+            int smallest = 0;
+            for (int i = 1; i < count; i++) {
+                if (sizes[i] < sizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            final List<File> files = directories.get(directory);
+            Collections.sort(files);
+            for (final File test : files) {
+                shards.get(smallest).add(test.getAbsolutePath().substring(prefix).replace('\\', '/'));
+            }
+            sizes[smallest] += directorySizes.get(directory);
+        }
+        return shards;
+    }
+
+    private static String join(List<String> lines) {
+        final StringBuilder result = new StringBuilder();
+        for (final String line : lines) {
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
 }
@@ -0,0 +1,197 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * The results of the run-tests.php processes of an aol; written as JUnit XML report.
+ */
+final class TestResults {
+
+    /**
+     * Pattern of a result line: status, description, test file and an optional reason
+     */
+    private static final Pattern RESULT_PATTERN = Pattern.compile("^(PASS|FAIL|SKIP|BORK|LEAK|XFAIL|XLEAK|WARN|LEAK&FAIL)\\s+(.*?)\\s*\\[([^\\]]+\\.phpt)\\](.*)$");
+
+    /**
+     * The aol key
+     */
+    private final String aol;
+
+    /**
+     * The test results
+     */
+    private final List<Result> results = new ArrayList<Result>();
+
+    private int failures;
+
+    private int skipped;
+
+    /**
+     * Constructor
+     * @param aol the aol key
+     */
+    public TestResults(String aol) {
+        this.aol = aol;
+    }
+
+    /**
+     * Parses an output line of run-tests.php.
+     * @param line the output line
+     * @param time the time in seconds since the previous result of the same process
+     * @return the status (f.e. PASS or FAIL) or null if the line was not a test result
+     */
+    public synchronized String parse(String line, double time) {
+        // run-tests.php overwrites its progress line with carriage returns
+        final String result = line.substring(line.lastIndexOf('\r') + 1).trim();
+        final Matcher matcher = RESULT_PATTERN.matcher(result);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final String status = matcher.group(1);
+        this.results.add(new Result(status, matcher.group(2), matcher.group(3), matcher.group(4).trim(), time));
+        if (isFailure(status)) {
+            this.failures++;
+        } else if ("SKIP".equals(status)) {
+            this.skipped++;
+        }
+        return status;
+    }
+
+    /**
+     * Checks if a status fails the tests
+     * @param status the status
+     * @return true for failures
+     */
+    static boolean isFailure(String status) {
+        return "FAIL".equals(status) || "BORK".equals(status) || "LEAK".equals(status) || "LEAK&FAIL".equals(status);
+    }
+
+    public synchronized int getTests() {
+        return this.results.size();
+    }
+
+    public synchronized int getFailures() {
+        return this.failures;
+    }
+
+    public synchronized int getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Returns the failed tests
+     * @return test files
+     */
+    public synchronized List<String> getFailedTests() {
+        final List<String> result = new ArrayList<String>();
+        for (final Result r : this.results) {
+            if (isFailure(r.status)) {
+                result.add(r.status + " " + r.file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the JUnit XML report.
+     * @param file the report file
+     * @throws IOException thrown on write errors
+     */
+    public synchronized void writeJUnit(File file) throws IOException {
+        double total = 0;
+        for (final Result result : this.results) {
+            total += result.time;
+        }
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<testsuite name=\"php.").append(escape(this.aol))
+            .append("\" tests=\"").append(this.results.size())
+            .append("\" failures=\"").append(this.failures)
+            .append("\" errors=\"0\" skipped=\"").append(this.skipped)
+            .append("\" time=\"").append(String.format(Locale.ENGLISH, "%.3f", total)).append("\">\n");
+        for (final Result result : this.results) {
+            final int slash = result.file.lastIndexOf('/');
+            final String className = slash < 0 ? "php" : result.file.substring(0, slash).replace('/', '.');
+            xml.append("  <testcase classname=\"").append(escape(className))
+                .append("\" name=\"").append(escape(result.file.substring(slash + 1) + " " + result.description))
+                .append("\" time=\"").append(String.format(Locale.ENGLISH, "%.3f", result.time)).append("\"");
+            if (isFailure(result.status)) {
+                xml.append(">\n    <failure type=\"").append(escape(result.status)).append("\" message=\"")
+                    .append(escape(result.status + " " + result.file + " " + result.reason)).append("\"/>\n  </testcase>\n");
+            } else if ("SKIP".equals(result.status)) {
+                xml.append(">\n    <skipped message=\"").append(escape(result.reason)).append("\"/>\n  </testcase>\n");
+            } else {
+                xml.append("/>\n");
+            }
+        }
+        xml.append("</testsuite>\n");
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", xml.toString());
+    }
+
+    private static String escape(String value) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '<': result.append("&lt;"); break;
+                case '>': result.append("&gt;"); break;
+                case '&': result.append("&amp;"); break;
+                case '"': result.append("&quot;"); break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n') {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * A single test result
+     */
+    private static final class Result {
+
+        final String status;
+
+        final String description;
+
+        final String file;
+
+        final String reason;
+
+        final double time;
+
+        Result(String status, String description, String file, String reason, double time) {
+            this.status = status;
+            this.description = description;
+            this.file = file;
+            this.reason = reason;
+            this.time = time;
+        }
+
+    }
+
+}
@@ -25,6 +25,7 @@ import org.phpmaven.core.ExecutionUtils;
  * 
  * @author mepeisen
  * @goal validate
+ * @threadSafe
  */
 public class ValidateMojo extends AbstractNarMojo {
 
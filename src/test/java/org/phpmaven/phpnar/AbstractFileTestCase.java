@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Base class of the tests working on files; every test gets an empty temporary directory that is deleted afterwards.
+ */
+public abstract class AbstractFileTestCase extends TestCase {
+
+    /**
+     * The temporary directory of the current test
+     */
+    protected File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.tempDir = File.createTempFile("phpnar-" + this.getClass().getSimpleName(), "");
+        this.tempDir.delete();
+        this.tempDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(this.tempDir);
+    }
+
+    /**
+     * Writes a text file (UTF-8), creating the parent directories.
+     * @param file the file
+     * @param contents the contents
+     * @return the file
+     * @throws IOException thrown on write errors
+     */
+    protected static File write(File file, String contents) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", contents);
+        return file;
+    }
+
+    /**
+     * Reads a text file (UTF-8).
+     * @param file the file
+     * @return the contents
+     * @throws IOException thrown on read errors
+     */
+    protected static String read(File file) throws IOException {
+        return FileUtils.fileRead(file, "UTF-8");
+    }
+
+}
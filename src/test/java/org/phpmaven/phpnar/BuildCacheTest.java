@@ -0,0 +1,161 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the build cache fingerprints, the recorded entry sizes and the least recently used eviction.
+ */
+public class BuildCacheTest extends AbstractFileTestCase {
+
+    private static final String CONFIGURE = "--enable-cli --enable-embed=shared";
+
+    private final Log log = new SystemStreamLog();
+
+    public void testHashSources() throws Exception {
+        final File first = new File(this.tempDir, "first");
+        final File second = new File(this.tempDir, "second");
+        write(new File(first, "Zend/zend.c"), "int main;");
+        write(new File(first, "main/php.h"), "#define PHP 1");
+        write(new File(second, "main/php.h"), "#define PHP 1");
+        write(new File(second, "Zend/zend.c"), "int main;");
+        final String hash = BuildCache.hashSources(first);
+        assertEquals(64, hash.length());
+        assertEquals(hash, BuildCache.hashSources(second));
+
+        write(new File(second, "Zend/zend.c"), "int main();");
+        assertFalse(hash.equals(BuildCache.hashSources(second)));
+
+        write(new File(second, "Zend/zend.c"), "int main;");
+        assertEquals(hash, BuildCache.hashSources(second));
+        // same content, other path
+        new File(second, "main/php.h").renameTo(new File(second, "main/php2.h"));
+        assertFalse(hash.equals(BuildCache.hashSources(second)));
+    }
+
+    public void testFingerprint() {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put("cflags", "-O2");
+        props.put("cxxflags", "-O2 -g");
+        final Map<String, String> reordered = new LinkedHashMap<String, String>();
+        reordered.put("cxxflags", "-O2 -g");
+        reordered.put("cflags", "-O2");
+
+        final String fingerprint = BuildCache.fingerprint("abc", CONFIGURE, props);
+        assertEquals(fingerprint, BuildCache.fingerprint("abc", CONFIGURE, reordered));
+        assertFalse(fingerprint.equals(BuildCache.fingerprint("abd", CONFIGURE, props)));
+        assertFalse(fingerprint.equals(BuildCache.fingerprint("abc", CONFIGURE + " --with-zlib", props)));
+
+        reordered.put("cflags", "-O3");
+        assertFalse(fingerprint.equals(BuildCache.fingerprint("abc", CONFIGURE, reordered)));
+
+        // the separators keep "a" + "bc" apart from "ab" + "c"
+        final Map<String, String> empty = new HashMap<String, String>();
+        assertFalse(BuildCache.fingerprint("c", "ab", empty).equals(BuildCache.fingerprint("bc", "a", empty)));
+    }
+
+    public void testRestore() throws Exception {
+        final File cacheDir = new File(this.tempDir, "cache");
+        final BuildCache cache = new BuildCache(cacheDir, 1024 * 1024);
+        final File install = this.createInstall("install", 100);
+        final File target = new File(this.tempDir, "target");
+        write(new File(target, "stale.txt"), "stale");
+
+        assertFalse(cache.restore(this.log, "a", target));
+        cache.store(this.log, "a", install);
+        assertTrue(cache.restore(this.log, "a", target));
+
+        assertEquals(read(new File(install, "bin/php")), read(new File(target, "bin/php")));
+        assertFalse(new File(target, "stale.txt").exists());
+        assertFalse(new File(target, ".phpnar-lock").exists());
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final File cacheDir = new File(this.tempDir, "cache");
+        final BuildCache cache = new BuildCache(cacheDir, 2500);
+        final File target = new File(this.tempDir, "target");
+
+        cache.store(this.log, "a", this.createInstall("a", 1000));
+        cache.store(this.log, "b", this.createInstall("b", 1000));
+        final long now = System.currentTimeMillis();
+        new File(cacheDir, "a.used").setLastModified(now - 30000);
+        new File(cacheDir, "b.used").setLastModified(now - 20000);
+
+        // a is older but restored, so b is the least recently used entry
+        assertTrue(cache.restore(this.log, "a", target));
+        cache.store(this.log, "c", this.createInstall("c", 1000));
+
+        assertTrue(new File(cacheDir, "a").isDirectory());
+        assertFalse(new File(cacheDir, "b").exists());
+        assertFalse(new File(cacheDir, "b.used").exists());
+        assertTrue(new File(cacheDir, "c").isDirectory());
+        assertFalse(cache.restore(this.log, "b", target));
+
+        for (final String name : cacheDir.list()) {
+            assertFalse(name, name.contains(".evicted-") || name.contains(".tmp-"));
+        }
+    }
+
+    public void testKeepsEntriesWithinLimit() throws Exception {
+        final File cacheDir = new File(this.tempDir, "cache");
+        final BuildCache cache = new BuildCache(cacheDir, 3000);
+        cache.store(this.log, "a", this.createInstall("a", 1000));
+        cache.store(this.log, "b", this.createInstall("b", 1000));
+        cache.store(this.log, "c", this.createInstall("c", 1000));
+        assertTrue(new File(cacheDir, "a").isDirectory());
+        assertTrue(new File(cacheDir, "b").isDirectory());
+        assertTrue(new File(cacheDir, "c").isDirectory());
+    }
+
+    public void testRecordsEntrySizes() throws Exception {
+        final File cacheDir = new File(this.tempDir, "cache");
+        final BuildCache cache = new BuildCache(cacheDir, 1024 * 1024);
+        cache.store(this.log, "a", this.createInstall("a", 1000));
+        assertEquals("1000", read(new File(cacheDir, "a.used")));
+
+        // a marker without a size (older plugin version) is measured and keeps its last access
+        final File marker = write(new File(cacheDir, "a.used"), "");
+        final long lastAccess = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+        marker.setLastModified(lastAccess);
+        cache.store(this.log, "b", this.createInstall("b", 500));
+        assertEquals(1000, BuildCache.readSize(marker));
+        assertEquals(lastAccess, marker.lastModified());
+        assertEquals(500, BuildCache.readSize(new File(cacheDir, "b.used")));
+
+        // a restore only updates the last access
+        assertTrue(cache.restore(this.log, "a", new File(this.tempDir, "target")));
+        assertEquals(1000, BuildCache.readSize(marker));
+        assertTrue(marker.lastModified() > lastAccess);
+    }
+
+    private File createInstall(String name, int size) throws IOException {
+        final File install = new File(this.tempDir, "installs/" + name);
+        final StringBuilder content = new StringBuilder();
+        while (content.length() < size) {
+            content.append(name);
+        }
+        write(new File(install, "bin/php"), content.substring(0, size));
+        return install;
+    }
+
+}
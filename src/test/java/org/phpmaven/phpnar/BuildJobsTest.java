@@ -0,0 +1,104 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests the cpu quota and memory detection on fake /proc and /sys trees.
+ */
+public class BuildJobsTest extends AbstractFileTestCase {
+
+    private static final String MEMINFO = "MemTotal:       16314880 kB\n"
+        + "MemFree:         1048576 kB\n"
+        + "MemAvailable:    8388608 kB\n"
+        + "Buffers:          524288 kB\n";
+
+    public void testNoCgroup() throws Exception {
+        assertEquals(-1.0, BuildJobs.cgroupCpuQuota(this.tempDir), 0);
+        assertEquals(-1, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    public void testCgroupV2Quota() throws Exception {
+        this.write("sys/fs/cgroup/cpu.max", "250000 100000\n");
+        assertEquals(2.5, BuildJobs.cgroupCpuQuota(this.tempDir), 0.0001);
+    }
+
+    public void testCgroupV2Unlimited() throws Exception {
+        this.write("sys/fs/cgroup/cpu.max", "max 100000\n");
+        // must not fall back to the v1 files
+        this.write("sys/fs/cgroup/cpu/cpu.cfs_quota_us", "100000\n");
+        this.write("sys/fs/cgroup/cpu/cpu.cfs_period_us", "100000\n");
+        assertEquals(-1.0, BuildJobs.cgroupCpuQuota(this.tempDir), 0);
+    }
+
+    public void testCgroupV1Quota() throws Exception {
+        this.write("sys/fs/cgroup/cpu/cpu.cfs_quota_us", "150000\n");
+        this.write("sys/fs/cgroup/cpu/cpu.cfs_period_us", "100000\n");
+        assertEquals(1.5, BuildJobs.cgroupCpuQuota(this.tempDir), 0.0001);
+    }
+
+    public void testCgroupV1Unlimited() throws Exception {
+        this.write("sys/fs/cgroup/cpu/cpu.cfs_quota_us", "-1\n");
+        this.write("sys/fs/cgroup/cpu/cpu.cfs_period_us", "100000\n");
+        assertEquals(-1.0, BuildJobs.cgroupCpuQuota(this.tempDir), 0);
+    }
+
+    public void testMemAvailable() throws Exception {
+        this.write("proc/meminfo", MEMINFO);
+        assertEquals(8192, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    public void testCgroupV2MemoryLimit() throws Exception {
+        this.write("proc/meminfo", MEMINFO);
+        this.write("sys/fs/cgroup/memory.max", String.valueOf(4L * 1024 * 1024 * 1024));
+        this.write("sys/fs/cgroup/memory.current", String.valueOf(1024L * 1024 * 1024));
+        assertEquals(3072, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    public void testCgroupV2NoMemoryLimit() throws Exception {
+        this.write("proc/meminfo", MEMINFO);
+        this.write("sys/fs/cgroup/memory.max", "max");
+        this.write("sys/fs/cgroup/memory.current", String.valueOf(1024L * 1024 * 1024));
+        assertEquals(8192, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    public void testCgroupV1MemoryLimit() throws Exception {
+        this.write("proc/meminfo", MEMINFO);
+        this.write("sys/fs/cgroup/memory/memory.limit_in_bytes", String.valueOf(2L * 1024 * 1024 * 1024));
+        this.write("sys/fs/cgroup/memory/memory.usage_in_bytes", String.valueOf(512L * 1024 * 1024));
+        assertEquals(1536, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    public void testCgroupV1NoMemoryLimit() throws Exception {
+        this.write("proc/meminfo", MEMINFO);
+        // cgroup v1 reports a page aligned Long.MAX_VALUE if there is no limit
+        this.write("sys/fs/cgroup/memory/memory.limit_in_bytes", "9223372036854771712");
+        this.write("sys/fs/cgroup/memory/memory.usage_in_bytes", String.valueOf(512L * 1024 * 1024));
+        assertEquals(8192, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    public void testCgroupMemoryWithoutMeminfo() throws Exception {
+        this.write("sys/fs/cgroup/memory.max", String.valueOf(2L * 1024 * 1024 * 1024));
+        this.write("sys/fs/cgroup/memory.current", "0");
+        assertEquals(2048, BuildJobs.availableMemory(this.tempDir));
+    }
+
+    private void write(String path, String contents) throws IOException {
+        write(new File(this.tempDir, path), contents);
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the build log file, the ring buffer of the last lines and the console fallback.
+ */
+public class BuildLogTest extends AbstractFileTestCase {
+
+    private static final int LINES = 100000;
+
+    public void testWritesLinesAndKeepsTail() throws Exception {
+        final RecordingLog console = new RecordingLog();
+        final File file = new File(this.tempDir, "amd64-Linux-gpp/build.log");
+        final BuildLog log = new BuildLog(console, file, 3);
+        for (int i = 1; i <= 5; i++) {
+            log.line("line " + i);
+        }
+        log.progress("phase make");
+        log.line("line 6");
+        log.close();
+
+        assertEquals("line 1\nline 2\nline 3\nline 4\nline 5\nphase make\nline 6\n", read(file));
+        // only the progress lines are printed while the build runs
+        assertEquals(Arrays.asList("phase make"), console.infos);
+
+        log.printTail();
+        assertEquals(Arrays.asList("Last 3 lines of " + file + ":", "line 4", "line 5", "line 6"), console.errors);
+    }
+
+    public void testNoTail() throws Exception {
+        final RecordingLog console = new RecordingLog();
+        final BuildLog log = new BuildLog(console, new File(this.tempDir, "build.log"), 0);
+        log.line("line 1");
+        log.close();
+        log.printTail();
+        assertEquals(Arrays.asList("Last 0 lines of " + new File(this.tempDir, "build.log") + ":"), console.errors);
+    }
+
+    public void testFallsBackToConsoleOnWriteErrors() throws Exception {
+        final File full = new File("/dev/full");
+        if (!full.exists()) {
+            // not a linux machine
+            return;
+        }
+        final RecordingLog console = new RecordingLog();
+        final BuildLog log = new BuildLog(console, full, 10);
+        // more than the buffer of the writer so that the disk full error shows up while the build runs
+        for (int i = 0; i < LINES; i++) {
+            log.line(String.format("line %06d", i));
+        }
+        log.close();
+
+        assertEquals(1, console.warnings.get());
+        assertFalse(console.infos.isEmpty());
+        assertEquals(String.format("line %06d", LINES - 1), console.infos.get(console.infos.size() - 1));
+        log.printTail();
+        assertEquals(11, console.errors.size());
+    }
+
+    public void testQueueIsBounded() throws Exception {
+        final File fifo = new File(this.tempDir, "build.log");
+        if (new ProcessBuilder("mkfifo", fifo.getAbsolutePath()).start().waitFor() != 0) {
+            // no named pipes on this machine
+            return;
+        }
+        final CountDownLatch startReading = new CountDownLatch(1);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fifo), "UTF-8"));
+                    try {
+                        startReading.await();
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            received.add(line);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch (Exception ex) {
+                    received.add(ex.toString());
+                }
+            }
+        };
+        reader.start();
+
+        final BuildLog log = new BuildLog(new RecordingLog(), fifo, 10);
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LINES; i++) {
+                    log.line(String.format("line %06d", i));
+                }
+            }
+        };
+        producer.start();
+
+        // the pipe, the writer buffer and the queue are full; the build output waits instead of piling up in memory
+        producer.join(1000);
+        assertTrue(producer.isAlive());
+
+        startReading.countDown();
+        producer.join(30000);
+        assertFalse(producer.isAlive());
+        log.close();
+        reader.join(30000);
+
+        assertEquals(LINES, received.size());
+        for (int i = 0; i < LINES; i++) {
+            assertEquals(String.format("line %06d", i), received.get(i));
+        }
+    }
+
+    /**
+     * A console recording the messages
+     */
+    private static final class RecordingLog extends SystemStreamLog {
+
+        private final List<String> infos = Collections.synchronizedList(new ArrayList<String>());
+
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        private final AtomicInteger warnings = new AtomicInteger();
+
+        @Override
+        public void info(CharSequence content) {
+            this.infos.add(content.toString());
+        }
+
+        @Override
+        public void warn(CharSequence content, Throwable error) {
+            this.warnings.incrementAndGet();
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            this.errors.add(content.toString());
+        }
+
+    }
+
+}
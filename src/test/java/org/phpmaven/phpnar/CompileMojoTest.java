@@ -0,0 +1,253 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Tests the stages of the generated *ix build script.
+ */
+public class CompileMojoTest extends AbstractFileTestCase {
+
+    private static final String CONFIGURE = "./configure --enable-cli";
+
+    private static final String MAKE_GATE = "if [ ! -f .phpmaven-stamps/make ] || ! make -q > /dev/null 2>&1; then\n";
+
+    private static final String INSTALL_GATE = "if [ .phpmaven-stamps/make -nt .phpmaven-stamps/install ] || [ ! -d \"";
+
+    private final Log log = new SystemStreamLog();
+
+    private CompileMojo mojo;
+
+    private AolItem item;
+
+    private File targetFolder;
+
+    private File installFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final MavenProject project = new MavenProject();
+        project.setArtifactId("php");
+        project.setFile(new File(this.tempDir, "pom.xml"));
+        this.mojo = new CompileMojo();
+        this.mojo.project = project;
+        this.item = new AolItem("amd64", "Linux", "g++", null, null);
+        this.item.check(this.log, project);
+        this.targetFolder = new File(this.tempDir, "target/" + this.item.getAol());
+        this.installFolder = new File(this.targetFolder, "phpmaven.install");
+        this.targetFolder.mkdirs();
+    }
+
+    public void testFreshSources() throws Exception {
+        final String script = this.createScript(false);
+
+        // a failing buildconf or configure must not leave the stamps of the following stages behind
+        assertOrder(script,
+            "rm -f .phpmaven-stamps/configure .phpmaven-stamps/buildconf\n",
+            "./buildconf --force\n",
+            "touch .phpmaven-stamps/buildconf\n",
+            "rm -f .phpmaven-stamps/configure\n",
+            CONFIGURE + "\n",
+            "echo " + CompileMojo.createConfigureStamp(CONFIGURE) + " > .phpmaven-stamps/configure\n",
+            MAKE_GATE,
+            INSTALL_GATE);
+    }
+
+    public void testSkipsUpToDateBuildconfAndConfigure() throws Exception {
+        this.configure(CONFIGURE);
+        final String script = this.createScript(false);
+        assertFalse(script, script.contains("./buildconf"));
+        assertFalse(script, script.contains("./configure"));
+        assertFalse(script, script.contains("rm -f .phpmaven-stamps/configure"));
+        // make and install decide at build time
+        assertOrder(script, MAKE_GATE, INSTALL_GATE);
+    }
+
+    public void testConfigureCommandChanged() throws Exception {
+        this.configure(CONFIGURE + " --with-zlib");
+        final String script = this.createScript(false);
+        assertFalse(script, script.contains("./buildconf"));
+        assertOrder(script, "rm -f .phpmaven-stamps/configure\n", CONFIGURE + "\n", MAKE_GATE);
+    }
+
+    public void testBuildconfInputChanged() throws Exception {
+        this.configure(CONFIGURE);
+        write(new File(this.targetFolder, "ext/standard/config.m4"), "PHP_ARG_ENABLE(standard)");
+        new File(this.targetFolder, "ext/standard/config.m4").setLastModified(System.currentTimeMillis() + 10000);
+        final String script = this.createScript(false);
+        // configure is regenerated, so it runs even though its stamp matches
+        assertOrder(script, "./buildconf --force\n", "rm -f .phpmaven-stamps/configure\n", CONFIGURE + "\n");
+    }
+
+    public void testMakeOnlyRenewsItsStampIfSomethingWasRebuilt() throws Exception {
+        this.configure(CONFIGURE);
+        final String script = this.createScript(false);
+        final String make = script.substring(script.indexOf(MAKE_GATE), script.indexOf(INSTALL_GATE));
+        assertOrder(make, MAKE_GATE, "make -j", "  touch .phpmaven-stamps/make\n", "else\n",
+            "  echo \"Skipping make: all targets are up to date\"\n", "fi\n");
+    }
+
+    public void testInstallRunsIfMakeIsNewer() throws Exception {
+        this.configure(CONFIGURE);
+        final String script = this.createScript(false);
+        assertOrder(script,
+            INSTALL_GATE + this.installFolder.getAbsolutePath() + "\" ]; then\n",
+            "  rm -f .phpmaven-stamps/install\n",
+            "make install\n",
+            "  touch .phpmaven-stamps/install\n",
+            "else\n",
+            "  echo \"Skipping make install: nothing was rebuilt\"\n");
+    }
+
+    public void testPgoTrainingRemovesTheLaterStamps() throws Exception {
+        this.mojo.setPgoDirectory(new File(this.tempDir, "pgo"));
+        this.configure(CONFIGURE);
+        this.createConfigGuess();
+        write(new File(this.targetFolder, "Zend/bench.php"), "<?php");
+        write(new File(this.targetFolder, "Zend/micro_bench.php"), "<?php");
+        final String profile = new File(this.tempDir, "pgo/" + this.item.getAol().getKey()).getAbsolutePath();
+
+        final String script = this.createScript(true);
+        assertOrder(script,
+            "rm -f .phpmaven-stamps/configure .phpmaven-stamps/make .phpmaven-stamps/install\n",
+            "rm -rf \"" + profile + "\"\n",
+            "-fprofile-generate=" + profile,
+            "sapi/cli/php Zend/bench.php > /dev/null\n",
+            "make clean > /dev/null\n",
+            "/.phpmaven-trained\"\n",
+            // php is configured and built again with the new profile although the configure stamp matched
+            "rm -f .phpmaven-stamps/configure\n",
+            CONFIGURE + "\n",
+            MAKE_GATE,
+            INSTALL_GATE);
+    }
+
+    public void testPgoTrainingNeedsScripts() throws Exception {
+        this.mojo.setPgoDirectory(new File(this.tempDir, "pgo"));
+        this.configure(CONFIGURE);
+        this.createConfigGuess();
+        try {
+            this.createScript(true);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Zend/bench.php"));
+        }
+    }
+
+    public void testProfileStages() throws Exception {
+        this.configure(CONFIGURE);
+        this.createConfigGuess();
+        new File(this.targetFolder, "ext/json").mkdirs();
+        new File(this.targetFolder, "ext/curl").mkdirs();
+        this.mojo.setExtensionProfiles(Arrays.asList(
+            createProfile("minimal", "json"),
+            createProfile("full", "json", "curl")));
+        final String extensions = new File(this.targetFolder, "phpmaven.extensions").getAbsolutePath();
+        final String modules = this.installFolder.getAbsolutePath() + "/profiles/";
+
+        final String script = this.createScript(false);
+        // every extension is built once after the core was installed, in name order
+        assertOrder(script,
+            INSTALL_GATE,
+            "if [ .phpmaven-stamps/install -nt .phpmaven-stamps/ext-curl ] || [ -n \"$(find ext/curl -newer .phpmaven-stamps/ext-curl -print -quit 2> /dev/null)\" ]; then\n",
+            "  rm -f .phpmaven-stamps/ext-curl\n",
+            "--enable-curl=shared",
+            "  touch .phpmaven-stamps/ext-curl\n",
+            "if [ .phpmaven-stamps/install -nt .phpmaven-stamps/ext-json ]",
+            "--enable-json=shared",
+            "  touch .phpmaven-stamps/ext-json\n",
+            "rm -rf \"" + modules + "minimal/modules\"\n",
+            "cp \"" + extensions + "/json/modules/json.so\" \"" + modules + "minimal/modules/\"\n",
+            "rm -rf \"" + modules + "full/modules\"\n",
+            "cp \"" + extensions + "/json/modules/json.so\" \"" + modules + "full/modules/\"\n",
+            "cp \"" + extensions + "/curl/modules/curl.so\" \"" + modules + "full/modules/\"\n");
+        assertEquals(script.indexOf("touch .phpmaven-stamps/ext-json"), script.lastIndexOf("touch .phpmaven-stamps/ext-json"));
+    }
+
+    public void testProfileExtensionNotFound() throws Exception {
+        this.configure(CONFIGURE);
+        this.createConfigGuess();
+        this.mojo.setExtensionProfiles(Arrays.asList(createProfile("minimal", "json")));
+        try {
+            this.createScript(false);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("json"));
+        }
+    }
+
+    private String createScript(boolean pgoTraining) throws MojoFailureException {
+        return this.mojo.createIxBuildScript(this.item, this.targetFolder, this.installFolder, CONFIGURE, null, pgoTraining, this.log, null);
+    }
+
+    /**
+     * Creates the state of sources that were configured with the given command
+     * @param configureCommand the configure command
+     * @throws Exception
+     */
+    private void configure(String configureCommand) throws Exception {
+        final long old = System.currentTimeMillis() - 60000;
+        write(new File(this.targetFolder, "configure.in"), "AC_INIT").setLastModified(old);
+        write(new File(this.targetFolder, "acinclude.m4"), "dnl").setLastModified(old);
+        write(new File(this.targetFolder, "configure"), "#!/bin/sh").setLastModified(old + 1000);
+        write(new File(this.targetFolder, "main/php_config.h.in"), "").setLastModified(old + 1000);
+        write(new File(this.targetFolder, "Makefile"), "all:");
+        write(new File(this.targetFolder, ".phpmaven-stamps/configure"), CompileMojo.createConfigureStamp(configureCommand) + "\n");
+    }
+
+    private void createConfigGuess() throws Exception {
+        final File configGuess = write(new File(this.targetFolder, "config.guess"), "#!/bin/sh\necho x86_64-pc-linux-gnu\n");
+        FileTreeUtils.setExecutable(configGuess.toPath());
+    }
+
+    private static ExtensionProfile createProfile(String name, String... extensions) {
+        final List<Extension> list = new ArrayList<Extension>();
+        for (final String extension : extensions) {
+            final Extension ext = new Extension();
+            ext.setName(extension);
+            ext.setEnable(Boolean.TRUE);
+            list.add(ext);
+        }
+        final ExtensionProfile profile = new ExtensionProfile();
+        profile.setName(name);
+        profile.setExtensions(list);
+        return profile;
+    }
+
+    /**
+     * Asserts that the script contains the given parts in the given order
+     * @param script the script
+     * @param parts the expected parts
+     */
+    private static void assertOrder(String script, String... parts) {
+        int index = 0;
+        for (final String part : parts) {
+            final int found = script.indexOf(part, index);
+            assertTrue("Missing \"" + part + "\" after offset " + index + " in\n" + script, found >= 0);
+            index = found + part.length();
+        }
+    }
+
+}
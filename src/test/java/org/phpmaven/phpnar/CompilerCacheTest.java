@@ -0,0 +1,68 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the resolution of the compiler cache.
+ */
+public class CompilerCacheTest extends TestCase {
+
+    private final Log log = new SystemStreamLog();
+
+    private final File directory = new File("compiler-cache");
+
+    public void testNone() {
+        assertNull(CompilerCache.resolve(this.log, "none", this.directory, "5G"));
+        assertNull(CompilerCache.resolve(this.log, null, this.directory, "5G"));
+    }
+
+    public void testUnknown() {
+        try {
+            CompilerCache.resolve(this.log, "distcc", this.directory, "5G");
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    public void testExplicitToolMissing() {
+        for (final String tool : new String[]{"ccache", "sccache"}) {
+            if (CompilerCache.findOnPath(tool) != null) {
+                continue;
+            }
+            try {
+                CompilerCache.resolve(this.log, tool, this.directory, "5G");
+                fail(tool);
+            } catch (IllegalStateException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains(tool + " not found on PATH"));
+            }
+        }
+    }
+
+    public void testAutoNeverFails() {
+        final CompilerCache cache = CompilerCache.resolve(this.log, "auto", this.directory, "5G");
+        if (cache != null) {
+            assertNotNull(CompilerCache.findOnPath(cache.getLauncher()));
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests the keying of the autoconf cache files.
+ */
+public class ConfigureCacheTest extends AbstractFileTestCase {
+
+    private static final String CONFIGURE = "CC=\"gcc\" CXX=\"g++\" ./configure --enable-cli";
+
+    private static final String AOL = "amd64-Linux-gpp";
+
+    private final Log log = new SystemStreamLog();
+
+    public void testFingerprint() {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put("ArchFlags", "-m64");
+        props.put("HostOs", "Linux");
+        props.put("cc.version", "gcc (GCC) 4.8.5");
+        final Map<String, String> reordered = new LinkedHashMap<String, String>();
+        reordered.put("cc.version", "gcc (GCC) 4.8.5");
+        reordered.put("HostOs", "Linux");
+        reordered.put("ArchFlags", "-m64");
+
+        final String fingerprint = ConfigureCache.fingerprint(CONFIGURE, props);
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, ConfigureCache.fingerprint(CONFIGURE, reordered));
+        assertFalse(fingerprint.equals(ConfigureCache.fingerprint(CONFIGURE + " --with-zlib", props)));
+
+        // a compiler upgrade invalidates the cache
+        reordered.put("cc.version", "gcc (GCC) 9.3.0");
+        assertFalse(fingerprint.equals(ConfigureCache.fingerprint(CONFIGURE, reordered)));
+    }
+
+    public void testResolveKeepsCurrentFingerprint() throws Exception {
+        final ConfigureCache cache = new ConfigureCache(this.tempDir);
+        final File cacheFile = cache.resolve(this.log, AOL, "abc");
+        assertEquals(new File(this.tempDir, AOL + "/abc.cache"), cacheFile);
+        assertFalse(cacheFile.exists());
+
+        write(cacheFile, "ac_cv_prog_cc_g=yes\n");
+        assertEquals(cacheFile, cache.resolve(this.log, AOL, "abc"));
+        assertTrue(cacheFile.exists());
+    }
+
+    public void testResolveDeletesOutdatedFiles() throws Exception {
+        final ConfigureCache cache = new ConfigureCache(this.tempDir);
+        final File old = cache.resolve(this.log, AOL, "abc");
+        write(old, "ac_cv_prog_cc_g=yes\n");
+        final File other = cache.resolve(this.log, "x86-Linux-gpp", "abc");
+        write(other, "ac_cv_prog_cc_g=yes\n");
+
+        final File current = cache.resolve(this.log, AOL, "def");
+        assertFalse(current.exists());
+        assertFalse(old.exists());
+        // the cache files of other aols are kept
+        assertTrue(other.exists());
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests that the binaries are only stripped again if they changed; objcopy and readelf are replaced by scripts
+ * recording their calls.
+ */
+public class DebugSplitterTest extends AbstractFileTestCase {
+
+    private static final String BUILD_ID = "0a1b2c3d4e5f";
+
+    private File install;
+
+    private File calls;
+
+    private DebugSplitter splitter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.install = new File(this.tempDir, "install");
+        this.calls = new File(this.tempDir, "calls.log");
+        final File tools = new File(this.tempDir, "tools");
+        // copies the input (second last argument) to the output (last argument)
+        this.createTool(new File(tools, "x-objcopy"), "cp \"${@: -2:1}\" \"${@: -1}\"");
+        this.createTool(new File(tools, "x-readelf"), "grep -q no-build-id \"$2\" || echo '    Build ID: " + BUILD_ID + "'");
+        this.splitter = new DebugSplitter(new SystemStreamLog(), new File(tools, "x-objcopy").getAbsolutePath(),
+            new File(this.tempDir, "stripped"), new File(this.tempDir, "debug"), new BuildTimings("package"));
+    }
+
+    public void testStripsOnlyChangedBinaries() throws Exception {
+        final File php = this.createElf("bin/php", "php");
+        final long old = System.currentTimeMillis() - 60000;
+        php.setLastModified(old);
+
+        final File stripped = this.splitter.strip(new File(this.install, "bin"), "bin");
+        assertEquals(3, this.countCalls());
+        assertTrue(new File(stripped, "php").isFile());
+        assertEquals(new File(this.tempDir, "debug/bin/php.debug"),
+            this.splitter.getDebugFiles().get(".build-id/0a/" + BUILD_ID.substring(2) + ".debug"));
+
+        // unchanged
+        this.splitter.strip(new File(this.install, "bin"), "bin");
+        assertEquals(3, this.countCalls());
+        assertEquals(1, this.splitter.getDebugFiles().size());
+
+        // rebuilt by make
+        php.setLastModified(System.currentTimeMillis() + 10000);
+        this.splitter.strip(new File(this.install, "bin"), "bin");
+        assertEquals(6, this.countCalls());
+
+        // debug file lost
+        new File(this.tempDir, "debug/bin/php.debug").delete();
+        this.splitter.strip(new File(this.install, "bin"), "bin");
+        assertEquals(9, this.countCalls());
+        assertTrue(new File(this.tempDir, "debug/bin/php.debug").isFile());
+    }
+
+    public void testCopiesOtherFilesAndRemovesDeletedFiles() throws Exception {
+        write(new File(this.install, "lib/php/PEAR.php"), "<?php");
+        write(new File(this.install, "lib/php/old.php"), "<?php");
+        this.splitter.strip(new File(this.install, "lib"), "lib");
+        assertEquals(0, this.countCalls());
+        assertEquals("<?php", read(new File(this.tempDir, "stripped/lib/php/PEAR.php")));
+
+        new File(this.install, "lib/php/old.php").delete();
+        write(new File(this.install, "lib/php/PEAR.php"), "<?php // new");
+        new File(this.install, "lib/php/PEAR.php").setLastModified(System.currentTimeMillis() + 10000);
+        this.splitter.strip(new File(this.install, "lib"), "lib");
+        assertEquals("<?php // new", read(new File(this.tempDir, "stripped/lib/php/PEAR.php")));
+        assertFalse(new File(this.tempDir, "stripped/lib/php/old.php").exists());
+    }
+
+    public void testWithoutBuildId() throws Exception {
+        this.createElf("lib/libphp5.so", "no-build-id");
+        this.splitter.strip(new File(this.install, "lib"), "lib");
+        assertEquals(new File(this.tempDir, "debug/lib/libphp5.so.debug"), this.splitter.getDebugFiles().get("lib/libphp5.so.debug"));
+    }
+
+    private File createElf(String path, String content) throws IOException {
+        return write(new File(this.install, path), "\u007fELF" + content);
+    }
+
+    private void createTool(File file, String command) throws IOException {
+        write(file, "#!/bin/bash\necho \"$0 $*\" >> \"" + this.calls.getAbsolutePath() + "\"\n" + command + "\n");
+        FileTreeUtils.setExecutable(file.toPath());
+    }
+
+    private int countCalls() throws IOException {
+        return this.calls.exists() ? read(this.calls).split("\n").length : 0;
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the selection of the make jobserver option from the make version and the job split without a jobserver.
+ */
+public class MakeJobServerTest extends TestCase {
+
+    public void testMake43UsesAuth() {
+        assertEquals("--jobserver-auth", MakeJobServer.getAuthOption("GNU Make 4.3\nBuilt for x86_64-pc-linux-gnu\n"
+            + "Copyright (C) 1988-2020 Free Software Foundation, Inc.\n"));
+    }
+
+    public void testMake42UsesAuth() {
+        assertEquals("--jobserver-auth", MakeJobServer.getAuthOption("GNU Make 4.2.1\nBuilt for x86_64-pc-linux-gnu\n"));
+    }
+
+    public void testMake5UsesAuth() {
+        assertEquals("--jobserver-auth", MakeJobServer.getAuthOption("GNU Make 5.0\n"));
+    }
+
+    public void testMake41UsesFds() {
+        assertEquals("--jobserver-fds", MakeJobServer.getAuthOption("GNU Make 4.1\nBuilt for x86_64-pc-linux-gnu\n"));
+    }
+
+    public void testMake381UsesFds() {
+        assertEquals("--jobserver-fds", MakeJobServer.getAuthOption("GNU Make 3.81\nCopyright (C) 2006  Free Software Foundation, Inc.\n"));
+    }
+
+    public void testOtherMake() {
+        assertNull(MakeJobServer.getAuthOption("make: illegal option -- -\nusage: make [-BeikNnqrstWwX]\n"));
+        assertNull(MakeJobServer.getAuthOption(""));
+    }
+
+    public void testJobsPerBuildWithoutJobServer() {
+        assertEquals(4, MakeJobServer.getJobsPerBuild(8, 2));
+        assertEquals(2, MakeJobServer.getJobsPerBuild(8, 3));
+        assertEquals(8, MakeJobServer.getJobsPerBuild(8, 1));
+        // every build runs at least one job
+        assertEquals(1, MakeJobServer.getJobsPerBuild(2, 3));
+        assertEquals(1, MakeJobServer.getJobsPerBuild(1, 4));
+    }
+
+}
@@ -0,0 +1,282 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+
+/**
+ * Tests the parallel zip writer and the tar companions.
+ */
+public class NarArchiverTest extends AbstractFileTestCase {
+
+    private static final int THREADS = 4;
+
+    private static final long TIMESTAMP = 1262304000000L;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testReproducibleOutputIsByteIdentical() throws Exception {
+        final File first = this.createTree("first", 1000);
+        final File second = this.createTree("second", 5000);
+
+        final NarArchiver archiver1 = this.newArchiver(-1);
+        archiver1.setReproducible(TIMESTAMP);
+        archiver1.addDirectory("include/", first.lastModified());
+        archiver1.addFile(new File(first, "include/php.h"), "include/php.h");
+        archiver1.addFile(new File(first, "bin/php"), "bin/php");
+        archiver1.addBytes("bin/php-config", "prefix=${MAVEN.INSTALL.ROOT}".getBytes("UTF-8"), 1000);
+        final File zip1 = new File(this.tempDir, "first.nar");
+        archiver1.write(zip1);
+
+        // other insertion order and other timestamps
+        final NarArchiver archiver2 = this.newArchiver(-1);
+        archiver2.setReproducible(TIMESTAMP);
+        archiver2.addBytes("bin/php-config", "prefix=${MAVEN.INSTALL.ROOT}".getBytes("UTF-8"), 2000);
+        archiver2.addFile(new File(second, "bin/php"), "bin/php");
+        archiver2.addFile(new File(second, "include/php.h"), "include/php.h");
+        archiver2.addDirectory("include/", second.lastModified());
+        final File zip2 = new File(this.tempDir, "second.nar");
+        archiver2.write(zip2);
+
+        assertTrue(Arrays.equals(Files.readAllBytes(zip1.toPath()), Files.readAllBytes(zip2.toPath())));
+
+        final ZipFile zip = new ZipFile(zip1);
+        try {
+            assertEquals(4, zip.size());
+            assertEquals(TIMESTAMP, zip.getEntry("bin/php").getTime());
+        } finally {
+            zip.close();
+        }
+    }
+
+    public void testStoresCompressedEntries() throws Exception {
+        final File tree = this.createTree("tree", 0);
+        final File random = new File(tree, "lib/random.bin");
+        this.writeRandom(random, 512 * 1024);
+        final File gz = new File(tree, "lib/archive.tar.gz");
+        this.writeRandom(gz, 1024);
+
+        final NarArchiver archiver = this.newArchiver(-1);
+        archiver.addFile(new File(tree, "include/php.h"), "include/php.h");
+        archiver.addFile(random, "lib/random.bin");
+        archiver.addFile(gz, "lib/archive.tar.gz");
+        final File target = new File(this.tempDir, "test.nar");
+        archiver.write(target);
+
+        assertEquals(3, archiver.getEntryCount());
+        assertEquals(2, archiver.getStoredCount());
+        final ZipFile zip = new ZipFile(target);
+        try {
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("include/php.h").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("lib/random.bin").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("lib/archive.tar.gz").getMethod());
+            assertContents(zip, "include/php.h", new File(tree, "include/php.h"));
+            assertContents(zip, "lib/random.bin", random);
+            assertContents(zip, "lib/archive.tar.gz", gz);
+        } finally {
+            zip.close();
+        }
+    }
+
+    public void testLevelZeroStoresAllEntries() throws Exception {
+        final File tree = this.createTree("tree", 0);
+        final NarArchiver archiver = this.newArchiver(0);
+        archiver.addFile(new File(tree, "include/php.h"), "include/php.h");
+        archiver.addFile(new File(tree, "bin/php"), "bin/php");
+        final File target = new File(this.tempDir, "test.nar");
+        archiver.write(target);
+
+        assertEquals(2, archiver.getStoredCount());
+        final ZipFile zip = new ZipFile(target);
+        try {
+            assertEquals(ZipEntry.STORED, zip.getEntry("include/php.h").getMethod());
+            assertContents(zip, "bin/php", new File(tree, "bin/php"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    public void testStreamsLargeEntries() throws Exception {
+        final File large = new File(this.tempDir, "libphp5.so");
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            line.append("zend_execute_data ");
+        }
+        final FileOutputStream out = new FileOutputStream(large);
+        try {
+            final byte[] bytes = line.append('\n').toString().getBytes("UTF-8");
+            for (long written = 0; written <= 17L * 1024 * 1024; written += bytes.length) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+
+        final NarArchiver archiver = this.newArchiver(-1);
+        archiver.addFile(large, "lib/libphp5.so");
+        final File target = new File(this.tempDir, "test.nar");
+        archiver.write(target);
+
+        final ZipFile zip = new ZipFile(target);
+        try {
+            final ZipEntry entry = zip.getEntry("lib/libphp5.so");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(large.length(), entry.getSize());
+            assertTrue(entry.getCompressedSize() < large.length() / 10);
+            assertContents(zip, "lib/libphp5.so", large);
+        } finally {
+            zip.close();
+        }
+    }
+
+    public void testWriteIfChanged() throws Exception {
+        final File tree = this.createTree("tree", 0);
+        final File target = new File(this.tempDir, "test.nar");
+
+        NarArchiver archiver = this.newArchiver(-1);
+        archiver.addFile(new File(tree, "include/php.h"), "include/php.h");
+        assertTrue(archiver.writeIfChanged(target));
+
+        archiver = this.newArchiver(-1);
+        archiver.addFile(new File(tree, "include/php.h"), "include/php.h");
+        assertFalse(archiver.writeIfChanged(target));
+
+        archiver = this.newArchiver(-1);
+        archiver.addFile(new File(tree, "include/php.h"), "include/php.h");
+        archiver.addBytes("bin/php-config", "prefix=/usr".getBytes("UTF-8"), 0);
+        assertTrue(archiver.writeIfChanged(target));
+    }
+
+    public void testWriteTarIfChanged() throws Exception {
+        final File tree = this.createTree("tree", 0);
+        final File target = new File(this.tempDir, "test.tar.xz");
+
+        assertTrue(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 1));
+        assertFalse(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 1));
+        // the compression level and the format are part of the up-to-date key
+        assertTrue(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 2));
+        assertFalse(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 2));
+        assertTrue(read(new File(this.tempDir, "test.tar.xz.inputs")).endsWith("\ttar.xz\t2"));
+
+        // changed and deleted inputs
+        new File(tree, "bin/php").setLastModified(TIMESTAMP + 10000);
+        assertTrue(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 2));
+        target.delete();
+        assertTrue(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 2));
+
+        final TarArchiveInputStream in = new TarArchiveInputStream(new XZCompressorInputStream(new FileInputStream(target)));
+        try {
+            TarArchiveEntry entry = in.getNextTarEntry();
+            assertEquals("include/php.h", entry.getName());
+            assertEquals(new File(tree, "include/php.h").length(), entry.getSize());
+            entry = in.getNextTarEntry();
+            assertEquals("bin/php", entry.getName());
+            assertEquals(0755, entry.getMode() & 0777);
+            assertNull(in.getNextTarEntry());
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testTarInputsDoNotMatchZipInputs() throws Exception {
+        final File tree = this.createTree("tree", 0);
+        final File target = new File(this.tempDir, "test.nar");
+        // a zip written to the same name is no up to date tar file
+        assertTrue(this.newTarArchiver(tree).writeIfChanged(target));
+        assertTrue(this.newTarArchiver(tree).writeTarIfChanged(target, "tar.xz", 1));
+        assertTrue(this.newTarArchiver(tree).writeIfChanged(target));
+    }
+
+    private NarArchiver newTarArchiver(File tree) {
+        final NarArchiver archiver = this.newArchiver(-1);
+        archiver.addFile(new File(tree, "include/php.h"), "include/php.h");
+        archiver.addFile(new File(tree, "bin/php"), "bin/php");
+        return archiver;
+    }
+
+    private NarArchiver newArchiver(int level) {
+        return new NarArchiver(this.executor, THREADS, level);
+    }
+
+    private File createTree(String name, long timeOffset) throws IOException {
+        final File root = new File(this.tempDir, name);
+        final StringBuilder header = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            header.append("#define PHP_CONSTANT_").append(i).append(' ').append(i).append('\n');
+        }
+        final File php = write(new File(root, "include/php.h"), header.toString());
+        php.setLastModified(TIMESTAMP + timeOffset);
+        final File bin = write(new File(root, "bin/php"), "ELF" + header);
+        bin.setExecutable(true);
+        bin.setLastModified(TIMESTAMP + timeOffset);
+        return root;
+    }
+
+    private void writeRandom(File file, int size) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        file.getParentFile().mkdirs();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void assertContents(ZipFile zip, String name, File expected) throws IOException {
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final InputStream in = zip.getInputStream(zip.getEntry(name));
+        try {
+            final byte[] buffer = new byte[65536];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                actual.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        assertTrue(name, Arrays.equals(Files.readAllBytes(expected.toPath()), actual.toByteArray()));
+    }
+
+}
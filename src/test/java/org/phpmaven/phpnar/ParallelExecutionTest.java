@@ -0,0 +1,154 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Tests the mojo base class running for several projects at once (parallel reactor builds, -T).
+ */
+public class ParallelExecutionTest extends AbstractFileTestCase {
+
+    private static final String KEY = "amd64.Linux.gpp.optimization.release.cflags";
+
+    private static final int THREADS = 8;
+
+    /**
+     * Every project sees the aol.properties overrides of its own basedir and the phpnar defaults.
+     * @throws Exception
+     */
+    public void testAolPropertiesArePerProject() throws Exception {
+        final MavenProject first = this.createProject("first", "-O1");
+        final MavenProject second = this.createProject("second", "-O3");
+        final MavenProject plain = this.createProject("plain", null);
+
+        this.executeConcurrently(first, second, plain);
+
+        assertEquals("-O1", AolProperties.getInstance(first).getProperty(KEY));
+        assertEquals("-O3", AolProperties.getInstance(second).getProperty(KEY));
+        assertNull(AolProperties.getInstance(plain).getProperty(KEY));
+        assertEquals("-O2", AolProperties.getInstance(plain).getProperty("optimization.release.cflags"));
+        assertSame(AolProperties.getInstance(first), AolProperties.getInstance(first));
+    }
+
+    /**
+     * Mojos of different projects running at once keep their own aol items.
+     * @throws Exception
+     */
+    public void testExecuteFromSeveralThreads() throws Exception {
+        final MavenProject[] projects = new MavenProject[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            projects[i] = this.createProject("module" + i, "-O" + i);
+        }
+        final List<NoopMojo> mojos = this.executeConcurrently(projects);
+        for (int i = 0; i < THREADS; i++) {
+            final NoopMojo mojo = mojos.get(i);
+            assertEquals(1, mojo.getAolItems().size());
+            assertEquals(1, mojo.getOrigAolItems().size());
+            assertNotSame(mojos.get((i + 1) % THREADS).getAolItems().get(0), mojo.getAolItems().get(0));
+            assertEquals("-O" + i, AolProperties.getInstance(projects[i]).getProperty(KEY));
+        }
+    }
+
+    /**
+     * A custom aol properties file that does not exist fails the build.
+     * @throws Exception
+     */
+    public void testMissingCustomAolProperties() throws Exception {
+        final MavenProject project = this.createProject("custom", null);
+        project.getProperties().setProperty("nar.aolProperties", new File(this.tempDir, "missing.properties").getPath());
+        try {
+            AolProperties.getInstance(project);
+            fail("MojoFailureException expected");
+        } catch (MojoFailureException ex) {
+            // expected
+        }
+    }
+
+    private MavenProject createProject(String name, String cflags) throws IOException {
+        final File basedir = new File(this.tempDir, name);
+        basedir.mkdirs();
+        if (cflags != null) {
+            write(new File(basedir, "aol.properties"), KEY + "=" + cflags + "\n");
+        }
+        final MavenProject project = new MavenProject();
+        project.setArtifactId(name);
+        project.setFile(new File(basedir, "pom.xml"));
+        return project;
+    }
+
+    private List<NoopMojo> executeConcurrently(MavenProject... projects) throws Exception {
+        final List<NoopMojo> mojos = new ArrayList<NoopMojo>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        for (final MavenProject project : projects) {
+            final NoopMojo mojo = new NoopMojo(project);
+            mojos.add(mojo);
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        mojo.execute();
+                    } catch (Throwable ex) {
+                        synchronized (errors) {
+                            errors.add(ex);
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+        return mojos;
+    }
+
+    /**
+     * A mojo doing nothing but the common initialization
+     */
+    private static final class NoopMojo extends AbstractNarMojo {
+
+        NoopMojo(MavenProject project) {
+            this.project = project;
+            // do not depend on the os of the test machine
+            this.setCrossCompile(true);
+        }
+
+        List<AolItem> getAolItems() {
+            return this.aolItems;
+        }
+
+        List<AolItem> getOrigAolItems() {
+            return this.origAolItems;
+        }
+
+    }
+
+}
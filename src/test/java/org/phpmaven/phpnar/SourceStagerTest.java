@@ -0,0 +1,155 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Tests the incremental staging of source trees.
+ * <p>
+ * The tests use the symlink strategy, so private copies can be told apart from the staged links.
+ * </p>
+ */
+public class SourceStagerTest extends AbstractFileTestCase {
+
+    private File source;
+
+    private File target;
+
+    private File manifest;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.source = new File(this.tempDir, "src");
+        this.target = new File(this.tempDir, "work");
+        this.manifest = new File(this.tempDir, "work.manifest");
+    }
+
+    public void testStagesOnlyChangedFiles() throws Exception {
+        write("Zend/zend.c", "int a;");
+        write("main/main.c", "int b;");
+
+        SourceStager stager = this.stage();
+        assertEquals(2, stager.getCopied());
+        assertEquals(0, stager.getSkipped());
+
+        stager = this.stage();
+        assertEquals(0, stager.getCopied());
+        assertEquals(2, stager.getSkipped());
+
+        write("main/main.c", "int bb;");
+        new File(this.source, "main/main.c").setLastModified(System.currentTimeMillis() + 10000);
+        stager = this.stage();
+        assertEquals(1, stager.getCopied());
+        assertEquals(1, stager.getSkipped());
+        assertEquals("int bb;", read(this.staged("main/main.c")));
+    }
+
+    public void testDeletesStaleFiles() throws Exception {
+        write("Zend/zend.c", "int a;");
+        write("ext/foo/foo.c", "int foo;");
+        write("ext/foo/tests/001.phpt", "--TEST--");
+        write("ext/bar/bar.c", "int bar;");
+        this.stage();
+        assertTrue(this.staged("ext/foo/tests/001.phpt").exists());
+
+        FileUtils.deleteDirectory(new File(this.source, "ext/foo"));
+        new File(this.source, "Zend/zend.c").delete();
+        final SourceStager stager = this.stage();
+
+        assertEquals(3, stager.getDeleted());
+        assertFalse(Files.exists(this.staged("ext/foo/foo.c").toPath(), LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(this.staged("Zend/zend.c").toPath(), LinkOption.NOFOLLOW_LINKS));
+        // directories that became empty are removed, the others and the working directory are kept
+        assertFalse(this.staged("ext/foo").exists());
+        assertFalse(this.staged("Zend").exists());
+        assertTrue(this.staged("ext/bar/bar.c").exists());
+        assertTrue(this.target.isDirectory());
+
+        // the deletion is recorded in the manifest
+        assertEquals(0, this.stage().getDeleted());
+    }
+
+    public void testKeepsFilesCreatedByTheBuild() throws Exception {
+        write("ext/foo/foo.c", "int foo;");
+        this.stage();
+        write(this.staged("ext/foo/foo.o"), "object");
+
+        new File(this.source, "ext/foo/foo.c").delete();
+        this.stage();
+
+        assertTrue(this.staged("ext/foo/foo.o").exists());
+        assertFalse(Files.exists(this.staged("ext/foo/foo.c").toPath(), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    public void testPrivateFiles() throws Exception {
+        write("configure", "#!/bin/sh");
+        write("build/libtool.m4", "dnl");
+        write("main/php_config.h.in", "#undef X");
+        write("Zend/zend_language_parser.y", "%%");
+        write("Zend/zend_language_parser.c", "int yyparse;");
+        write("Zend/zend_language_parser.h", "int yyparse();");
+        write("Zend/zend_ini_scanner.l", "%%");
+        write("Zend/zend_ini_scanner.c", "int scan;");
+        write("ext/date/lib/parse_date.re", "/*!re2c*/");
+        write("ext/date/lib/parse_date.c", "int parse;");
+        write("ext/json/json_parser.tab.c", "int parse;");
+        write("Zend/zend.c", "int a;");
+        write("main/main.c", "int b;");
+        this.stage();
+
+        for (final String path : Arrays.asList("configure", "build/libtool.m4", "main/php_config.h.in",
+                "Zend/zend_language_parser.c", "Zend/zend_language_parser.h", "Zend/zend_ini_scanner.c",
+                "ext/date/lib/parse_date.c", "ext/json/json_parser.tab.c")) {
+            assertFalse(path + " must be a private copy", Files.isSymbolicLink(this.staged(path).toPath()));
+            assertEquals(path, read(path), read(this.staged(path)));
+        }
+        for (final String path : Arrays.asList("Zend/zend.c", "main/main.c", "Zend/zend_language_parser.y")) {
+            assertTrue(path + " must be linked", Files.isSymbolicLink(this.staged(path).toPath()));
+        }
+
+        // writing to a private copy does not touch the sources
+        write(this.staged("configure"), "rewritten");
+        assertEquals("#!/bin/sh", read("configure"));
+    }
+
+    private SourceStager stage() throws IOException {
+        final SourceStager stager = new SourceStager(new SystemStreamLog(), 2, false, "symlink",
+            Arrays.asList(SourceStager.DEFAULT_PRIVATE_FILES));
+        stager.stage(this.source.toPath(), this.target.toPath(), this.manifest);
+        return stager;
+    }
+
+    private File staged(String path) {
+        return new File(this.target, path);
+    }
+
+    private void write(String path, String contents) throws IOException {
+        write(new File(this.source, path), contents);
+    }
+
+    private String read(String path) throws IOException {
+        return read(new File(this.source, path));
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the distribution of the php tests to the run-tests.php processes.
+ */
+public class TestMojoTest extends AbstractFileTestCase {
+
+    public void testShardsByDirectory() throws Exception {
+        final List<File> tests = new ArrayList<File>();
+        tests.add(this.createTest("ext/standard/tests/file/002.phpt", 3000));
+        tests.add(this.createTest("ext/standard/tests/file/001.phpt", 3000));
+        tests.add(this.createTest("Zend/tests/001.phpt", 2000));
+        tests.add(this.createTest("Zend/tests/002.phpt", 2000));
+        tests.add(this.createTest("ext/date/tests/001.phpt", 1500));
+        tests.add(this.createTest("ext/json/tests/001.phpt", 1000));
+
+        final List<List<String>> shards = TestMojo.createShards(this.tempDir, tests, 2);
+
+        // the biggest directories are spread over the shards first, the tests of a directory stay together in order
+        assertEquals(2, shards.size());
+        assertEquals(Arrays.asList("ext/standard/tests/file/001.phpt", "ext/standard/tests/file/002.phpt"), shards.get(0));
+        assertEquals(Arrays.asList("Zend/tests/001.phpt", "Zend/tests/002.phpt", "ext/date/tests/001.phpt",
+            "ext/json/tests/001.phpt"), shards.get(1));
+    }
+
+    public void testNoMoreShardsThanDirectories() throws Exception {
+        final List<File> tests = new ArrayList<File>();
+        tests.add(this.createTest("Zend/tests/001.phpt", 100));
+        tests.add(this.createTest("Zend/tests/002.phpt", 100));
+        tests.add(this.createTest("Zend/tests/003.phpt", 100));
+
+        final List<List<String>> shards = TestMojo.createShards(this.tempDir, tests, 8);
+        assertEquals(1, shards.size());
+        assertEquals(3, shards.get(0).size());
+    }
+
+    public void testNoTests() {
+        final List<List<String>> shards = TestMojo.createShards(this.tempDir, new ArrayList<File>(), 4);
+        assertEquals(1, shards.size());
+        assertTrue(shards.get(0).isEmpty());
+    }
+
+    private File createTest(String path, int size) throws IOException {
+        final StringBuilder contents = new StringBuilder("--TEST--\n");
+        while (contents.length() < size) {
+            contents.append("--FILE--\n");
+        }
+        return write(new File(this.tempDir, path), contents.substring(0, size));
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.phpmaven.phpnar;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Tests the parsing of the run-tests.php output.
+ */
+public class TestResultsTest extends AbstractFileTestCase {
+
+    /**
+     * Output of run-tests.php (php 5.x, -q) including the progress lines that are overwritten by carriage returns
+     */
+    private static final String[] OUTPUT = {
+        "=====================================================================",
+        "PHP         : /tmp/php/sapi/cli/php",
+        "TEST RESULT SUMMARY",
+        "Running selected tests.",
+        "TEST 1/7 [Zend/tests/001.phpt]\r                                    \rPASS func_num_args() tests [Zend/tests/001.phpt] ",
+        "TEST 2/7 [Zend/tests/002.phpt]\r                                    \rFAIL func_get_arg() tests [Zend/tests/002.phpt] ",
+        "TEST 3/7 [ext/standard/tests/bug1.phpt]\r                           \rSKIP Bug #1 (windows only) [ext/standard/tests/bug1.phpt] reason: only for Windows",
+        "TEST 4/7 [ext/standard/tests/leak.phpt]\r                           \rLEAK&FAIL Leaking <array> & \"string\" [ext/standard/tests/leak.phpt] ",
+        "TEST 5/7 [ext/standard/tests/leak2.phpt]\r                          \rLEAK Leaking test [ext/standard/tests/leak2.phpt] ",
+        "TEST 6/7 [Zend/tests/bug2.phpt]\r                                   \rXFAIL Bug #2 [Zend/tests/bug2.phpt]   XFAIL REASON: known bug",
+        "TEST 7/7 [Zend/tests/broken.phpt]\r                                 \rBORK Missing section --FILE-- [Zend/tests/broken.phpt]",
+        "=====================================================================",
+        "FAILED TEST SUMMARY",
+        "---------------------------------------------------------------------",
+        "func_get_arg() tests [Zend/tests/002.phpt]",
+        "Leaking <array> & \"string\" [ext/standard/tests/leak.phpt]",
+        "=====================================================================",
+    };
+
+    public void testParse() {
+        final TestResults results = new TestResults("amd64-Linux-gpp");
+        final String[] statuses = new String[OUTPUT.length];
+        for (int i = 0; i < OUTPUT.length; i++) {
+            statuses[i] = results.parse(OUTPUT[i], 0.5);
+        }
+
+        assertEquals(Arrays.asList(null, null, null, null, "PASS", "FAIL", "SKIP", "LEAK&FAIL", "LEAK", "XFAIL", "BORK",
+            null, null, null, null, null, null), Arrays.asList(statuses));
+        assertEquals(7, results.getTests());
+        assertEquals(4, results.getFailures());
+        assertEquals(1, results.getSkipped());
+        assertEquals(Arrays.asList("FAIL Zend/tests/002.phpt", "LEAK&FAIL ext/standard/tests/leak.phpt",
+            "LEAK ext/standard/tests/leak2.phpt", "BORK Zend/tests/broken.phpt"), results.getFailedTests());
+    }
+
+    public void testProgressLineOnly() {
+        final TestResults results = new TestResults("amd64-Linux-gpp");
+        assertNull(results.parse("TEST 1/7 [Zend/tests/001.phpt]\r", 0));
+        assertNull(results.parse("", 0));
+        assertEquals(0, results.getTests());
+    }
+
+    public void testIsFailure() {
+        assertTrue(TestResults.isFailure("FAIL"));
+        assertTrue(TestResults.isFailure("BORK"));
+        assertTrue(TestResults.isFailure("LEAK"));
+        assertTrue(TestResults.isFailure("LEAK&FAIL"));
+        assertFalse(TestResults.isFailure("PASS"));
+        assertFalse(TestResults.isFailure("SKIP"));
+        assertFalse(TestResults.isFailure("XFAIL"));
+        assertFalse(TestResults.isFailure("XLEAK"));
+        assertFalse(TestResults.isFailure("WARN"));
+    }
+
+    public void testWriteJUnit() throws Exception {
+        final TestResults results = new TestResults("amd64-Linux-gpp");
+        for (final String line : OUTPUT) {
+            results.parse(line, 0.25);
+        }
+        final File file = new File(this.tempDir, "TEST-php.amd64-Linux-gpp.xml");
+        results.writeJUnit(file);
+        final String xml = read(file);
+        assertTrue(xml, xml.contains("<testsuite name=\"php.amd64-Linux-gpp\" tests=\"7\" failures=\"4\" errors=\"0\" skipped=\"1\" time=\"1.750\">"));
+        assertTrue(xml, xml.contains("<testcase classname=\"Zend.tests\" name=\"001.phpt func_num_args() tests\" time=\"0.250\"/>"));
+        assertTrue(xml, xml.contains("name=\"leak.phpt Leaking &lt;array&gt; &amp; &quot;string&quot;\""));
+        assertTrue(xml, xml.contains("<failure type=\"LEAK&amp;FAIL\" message=\"LEAK&amp;FAIL ext/standard/tests/leak.phpt \"/>"));
+        assertTrue(xml, xml.contains("<skipped message=\"reason: only for Windows\"/>"));
+        // the report must be well formed
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+}